@@ -6,12 +6,10 @@ import static org.folio.rest.util.VertxUtil.executeBlocking;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.google.common.io.ByteStreams;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Context;
 import io.vertx.core.Handler;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -34,7 +32,8 @@ import org.folio.rest.tools.utils.BinaryOutStream;
 import org.folio.rest.tools.utils.ValidationHelper;
 import org.folio.rest.util.Constants;
 import org.folio.rest.util.ExportObject;
-import org.olf.erm.usage.counter.common.ExcelUtil;
+import org.folio.rest.util.VertxUtil.WorkerPool;
+import org.folio.rest.util.XlsxWriter;
 
 public class AggregatorSettingsAPI implements org.folio.rest.jaxrs.resource.AggregatorSettings {
 
@@ -193,9 +192,8 @@ public class AggregatorSettingsAPI implements org.folio.rest.jaxrs.resource.Aggr
 
     if ("xlsx".equals(format)) {
       try {
-        InputStream in = ExcelUtil.fromCSV(csvString);
         BinaryOutStream bos = new BinaryOutStream();
-        bos.setData(ByteStreams.toByteArray(in));
+        bos.setData(XlsxWriter.fromCSV(csvString));
         return GetAggregatorSettingsExportcredentialsByIdResponse
             .respond200WithApplicationVndOpenxmlformatsOfficedocumentSpreadsheetmlSheet(bos);
       } catch (IOException e) {
@@ -235,6 +233,7 @@ public class AggregatorSettingsAPI implements org.folio.rest.jaxrs.resource.Aggr
                 if (ar.succeeded()) {
                   executeBlocking(
                           vertxContext,
+                          WorkerPool.EXPORT,
                           () -> createExportcredialsResponse(ar.result().getResults(), format))
                       .onSuccess(resp -> asyncResultHandler.handle(succeededFuture(resp)))
                       .onFailure(
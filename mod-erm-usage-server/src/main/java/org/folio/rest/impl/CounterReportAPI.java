@@ -1,36 +1,47 @@
 package org.folio.rest.impl;
 
 import static io.vertx.core.Future.succeededFuture;
+import static org.folio.rest.util.Constants.COLUMN_NAME_PROVIDER_ID;
+import static org.folio.rest.util.Constants.COLUMN_NAME_RELEASE;
+import static org.folio.rest.util.Constants.COLUMN_NAME_REPORT_NAME;
+import static org.folio.rest.util.Constants.COLUMN_NAME_YEAR_MONTH;
 import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORTS;
+import static org.folio.rest.util.Constants.TABLE_NAME_UPLOAD_JOBS;
+import static org.folio.rest.util.Constants.VIEW_NAME_COUNTER_REPORTS_WITH_DATA;
 import static org.folio.rest.util.VertxUtil.executeBlocking;
 
-import com.google.common.io.ByteStreams;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
-import io.vertx.core.json.Json;
 import io.vertx.sqlclient.Tuple;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.cql2pgjson.CQL2PgJSON;
 import org.folio.cql2pgjson.exception.FieldException;
+import org.folio.rest.annotations.Stream;
 import org.folio.rest.annotations.Validate;
 import org.folio.rest.jaxrs.model.CounterReport;
 import org.folio.rest.jaxrs.model.CounterReportDocument;
@@ -39,21 +50,39 @@ import org.folio.rest.jaxrs.model.CounterReportsGetOrder;
 import org.folio.rest.jaxrs.model.CounterReportsPerYear;
 import org.folio.rest.jaxrs.model.CounterReportsSorted;
 import org.folio.rest.jaxrs.model.ReportsPerType;
+import org.folio.rest.jaxrs.model.UploadJob;
 import org.folio.rest.persist.Criteria.Criteria;
 import org.folio.rest.persist.Criteria.Criterion;
+import org.folio.rest.persist.Criteria.Order;
 import org.folio.rest.persist.PgUtil;
+import org.folio.rest.persist.PostgresClientStreamResult;
 import org.folio.rest.persist.cql.CQLWrapper;
 import org.folio.rest.tools.utils.BinaryOutStream;
+import org.folio.rest.tools.utils.TenantTool;
 import org.folio.rest.tools.utils.ValidationHelper;
 import org.folio.rest.util.Constants;
+import org.folio.rest.util.CounterReportJson;
+import org.folio.rest.util.ExportCache;
+import org.folio.rest.util.ParsedCounterReport;
 import org.folio.rest.util.PgHelper;
+import org.folio.rest.util.ReportFragments;
+import org.folio.rest.util.SavedCounterReports;
+import org.folio.rest.util.StreamedUpload;
 import org.folio.rest.util.UploadHelper;
-import org.niso.schemas.counter.Report;
-import org.olf.erm.usage.counter.common.ExcelUtil;
+import org.folio.rest.util.UploadHelper.FileUploadException;
+import org.folio.rest.util.UploadJobWorker;
+import org.folio.rest.util.VertxUtil.WorkerPool;
+import org.folio.rest.util.XlsxWriter;
 import org.olf.erm.usage.counter41.Counter4Utils;
-import org.olf.erm.usage.counter41.Counter4Utils.ReportMergeException;
 import org.olf.erm.usage.counter50.Counter5Utils;
 import org.olf.erm.usage.counter50.Counter5Utils.Counter5UtilsException;
+import org.z3950.zing.cql.CQLBooleanNode;
+import org.z3950.zing.cql.CQLNode;
+import org.z3950.zing.cql.CQLParseException;
+import org.z3950.zing.cql.CQLParser;
+import org.z3950.zing.cql.CQLPrefixNode;
+import org.z3950.zing.cql.CQLSortNode;
+import org.z3950.zing.cql.CQLTermNode;
 
 public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterReports {
 
@@ -62,14 +91,60 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
   private static final String UNSUPPORTED_COUNTER_VERSION_MSG =
       "Requested counter version \"%s\" is not supported.";
   private static final String XLSX_ERR_MSG = "An error occured while creating xlsx data: %s";
+  private static final String MERGE_ERR_MSG = "Unable to merge reports";
+  private static final String HEADER_UNCHANGED_MONTHS = "X-Unchanged-Months";
+  // number of reports converted at the same time while streaming, see streamCounterReports
+  private static final int MAX_CONVERSIONS = 4;
   private final Logger logger = LogManager.getLogger(CounterReportAPI.class);
+  // RMB creates a new instance for each request, so each streamed upload has its own accumulator
+  private StreamedUpload streamedUpload;
 
   private final Comparator<CounterReportsPerYear> compareByYear =
       Comparator.comparing(CounterReportsPerYear::getYear);
 
-  private CQLWrapper getCQL(String query, int limit, int offset) throws FieldException {
-    return new CQLWrapper(
-        new CQL2PgJSON(TABLE_NAME_COUNTER_REPORTS + ".jsonb"), query, limit, offset);
+  private CQLWrapper getCQL(String table, String query, int limit, int offset)
+      throws FieldException {
+    return new CQLWrapper(new CQL2PgJSON(table + ".jsonb"), query, limit, offset);
+  }
+
+  /**
+   * Checks if a CQL query searches or sorts by the report itself, e.g. {@code report="foo*"} or
+   * {@code report.Vendor.Name=bar}. Such queries need the view including the reports.
+   *
+   * @param query CQL query
+   * @return true if the query uses the report
+   */
+  static boolean isReportQuery(String query) {
+    if (query == null) {
+      return false;
+    }
+    try {
+      return isReportQuery(new CQLParser().parse(query));
+    } catch (CQLParseException | IOException e) {
+      // invalid queries are reported by CQL2PgJSON
+      return false;
+    }
+  }
+
+  private static boolean isReportQuery(CQLNode node) {
+    if (node instanceof CQLTermNode) {
+      return isReportIndex(((CQLTermNode) node).getIndex());
+    } else if (node instanceof CQLBooleanNode) {
+      CQLBooleanNode booleanNode = (CQLBooleanNode) node;
+      return isReportQuery(booleanNode.getLeftOperand())
+          || isReportQuery(booleanNode.getRightOperand());
+    } else if (node instanceof CQLSortNode) {
+      CQLSortNode sortNode = (CQLSortNode) node;
+      return sortNode.getSortIndexes().stream().anyMatch(index -> isReportIndex(index.getBase()))
+          || isReportQuery(sortNode.getSubtree());
+    } else if (node instanceof CQLPrefixNode) {
+      return isReportQuery(((CQLPrefixNode) node).getSubtree());
+    }
+    return false;
+  }
+
+  private static boolean isReportIndex(String index) {
+    return "report".equals(index) || index.startsWith("report.");
   }
 
   @Validate
@@ -88,20 +163,30 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
     logger.debug("Getting counter reports");
     logger.debug("Headers present are: {}", okapiHeaders::toString);
 
+    // reports are stored in a separate table, query the view including them only if needed
+    boolean queryReport = isReportQuery(query);
+    String table = queryReport ? VIEW_NAME_COUNTER_REPORTS_WITH_DATA : TABLE_NAME_COUNTER_REPORTS;
+
     CQLWrapper cql;
     try {
-      cql = getCQL(query, limit, offset);
+      cql = getCQL(table, query, limit, offset);
     } catch (FieldException e) {
       ValidationHelper.handleError(e, asyncResultHandler);
       return;
     }
 
-    String field = (tiny) ? "jsonb - 'report' AS jsonb" : "*";
+    // select the jsonb only, RMB maps other columns to properties of the same name
+    String field;
+    if (queryReport) {
+      field = (tiny) ? "jsonb - 'report' AS jsonb" : "jsonb";
+    } else {
+      field = (tiny) ? "jsonb" : PgHelper.FIELD_COUNTER_REPORT_WITH_DATA;
+    }
     String[] fieldList = {field};
 
     PgUtil.postgresClient(vertxContext, okapiHeaders)
         .get(
-            TABLE_NAME_COUNTER_REPORTS,
+            table,
             CounterReport.class,
             fieldList,
             cql,
@@ -131,13 +216,19 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
 
+    // the report is moved to counter_report_data on insert, return it as it was sent
     PgUtil.post(
         TABLE_NAME_COUNTER_REPORTS,
         entity,
         okapiHeaders,
         vertxContext,
         PostCounterReportsResponse.class,
-        asyncResultHandler);
+        ar -> {
+          if (ar.succeeded() && ar.result().getEntity() instanceof CounterReport) {
+            ((CounterReport) ar.result().getEntity()).setReport(entity.getReport());
+          }
+          asyncResultHandler.handle(ar);
+        });
   }
 
   @Override
@@ -149,14 +240,20 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
 
-    PgUtil.getById(
-        TABLE_NAME_COUNTER_REPORTS,
-        CounterReport.class,
-        id,
-        okapiHeaders,
-        vertxContext,
-        GetCounterReportsByIdResponse.class,
-        asyncResultHandler);
+    PgHelper.getCounterReportById(vertxContext, okapiHeaders, id)
+        .onSuccess(
+            counterReport -> {
+              if (counterReport == null) {
+                asyncResultHandler.handle(
+                    succeededFuture(GetCounterReportsByIdResponse.respond404WithTextPlain(id)));
+              } else {
+                asyncResultHandler.handle(
+                    succeededFuture(
+                        GetCounterReportsByIdResponse.respond200WithApplicationJson(
+                            counterReport)));
+              }
+            })
+        .onFailure(t -> ValidationHelper.handleError(t, asyncResultHandler));
   }
 
   @Override
@@ -197,17 +294,16 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
         asyncResultHandler);
   }
 
-  private Response createDownloadResponseByReportVersion(CounterReport report) {
-    if (report.getRelease().equals("4")) {
-      String xmlReport = Counter4Utils.toXML(Json.encode(report.getReport()));
+  private Response createDownloadResponseByReportVersion(CounterReportJson report) {
+    // a missing report is passed on as JSON null
+    String json = Objects.toString(report.getReport(), "null");
+    if ("4".equals(report.getRelease())) {
+      String xmlReport = Counter4Utils.toXML(json);
       return Optional.ofNullable(xmlReport)
           .map(r -> GetCounterReportsDownloadByIdResponse.respond200WithApplicationXml(xmlReport))
           .orElse(null);
-    } else if (report.getRelease().equals("5")) {
-      String jsonReport = Json.encode(report.getReport());
-      return Optional.ofNullable(jsonReport)
-          .map(r -> GetCounterReportsDownloadByIdResponse.respond200WithApplicationJson(jsonReport))
-          .orElse(null);
+    } else if ("5".equals(report.getRelease())) {
+      return GetCounterReportsDownloadByIdResponse.respond200WithApplicationJson(json);
     } else {
       return GetCounterReportsDownloadByIdResponse.respond500WithTextPlain(
           String.format("Unsupported report version '%s'", report.getRelease()));
@@ -221,31 +317,26 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
 
-    Promise<Response> promise = Promise.promise();
-    getCounterReportsById(id, null, okapiHeaders, promise, vertxContext);
-
-    promise
-        .future()
+    PgHelper.getCounterReportJson(vertxContext, okapiHeaders, id)
         .compose(
-            resp -> {
-              Object entity = resp.getEntity();
-              if (entity instanceof CounterReport) {
-                CounterReport report = (CounterReport) entity;
-                return executeBlocking(
-                    vertxContext,
-                    () ->
-                        Optional.ofNullable(createDownloadResponseByReportVersion(report))
-                            .orElse(
-                                GetCounterReportsDownloadByIdResponse.respond500WithTextPlain(
-                                    "Error while downloading report")));
-              } else {
-                return succeededFuture(resp);
+            report -> {
+              if (report == null) {
+                return succeededFuture(GetCounterReportsDownloadByIdResponse.respond404());
               }
+              return executeBlocking(
+                  vertxContext,
+                  WorkerPool.DOWNLOAD,
+                  () ->
+                      Optional.ofNullable(createDownloadResponseByReportVersion(report))
+                          .orElse(
+                              GetCounterReportsDownloadByIdResponse.respond500WithTextPlain(
+                                  "Error while downloading report")));
             })
-        .onComplete(asyncResultHandler);
+        .onSuccess(resp -> asyncResultHandler.handle(succeededFuture(resp)))
+        .onFailure(t -> ValidationHelper.handleError(t, asyncResultHandler));
   }
 
-  // index: counter_reports_custom_getcsv_idx
+  // index: counter_reports_identity_idx
   @Override
   @Validate
   public void getCounterReportsSortedByUdpId(
@@ -257,7 +348,7 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
     logger.debug("Headers present are: {}", okapiHeaders::toString);
 
     Criteria updCrit = new Criteria();
-    updCrit.addField("'providerId'").setOperation("=").setVal(udpId).setJSONB(true);
+    updCrit.addField(COLUMN_NAME_PROVIDER_ID).setOperation("=").setVal(udpId).setJSONB(false);
     Criterion criterion = new Criterion(updCrit);
     CQLWrapper cql = new CQLWrapper(criterion);
 
@@ -265,7 +356,7 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
         .get(
             TABLE_NAME_COUNTER_REPORTS,
             CounterReport.class,
-            new String[] {"jsonb - 'report' AS jsonb"},
+            new String[] {"jsonb"},
             cql,
             true,
             false,
@@ -314,13 +405,13 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
     return result;
   }
 
-  private Optional<String> csvMapper(CounterReport cr) throws Counter5UtilsException {
-    if (cr.getRelease().equals("4") && cr.getReport() != null) {
-      return Optional.ofNullable(
-          Counter4Utils.toCSV(Counter4Utils.fromJSON(Json.encode(cr.getReport()))));
-    } else if (cr.getRelease().equals("5") && cr.getReport() != null) {
-      return Optional.ofNullable(
-          Counter5Utils.toCSV(Counter5Utils.fromJSON(Json.encode(cr.getReport()))));
+  private Optional<String> csvMapper(CounterReportJson cr) throws Counter5UtilsException {
+    if (cr == null || cr.getReport() == null) {
+      return Optional.empty();
+    } else if ("4".equals(cr.getRelease())) {
+      return Optional.ofNullable(Counter4Utils.toCSV(Counter4Utils.fromJSON(cr.getReport())));
+    } else if ("5".equals(cr.getRelease())) {
+      return Optional.ofNullable(Counter5Utils.toCSV(Counter5Utils.fromJSON(cr.getReport())));
     }
     return Optional.empty();
   }
@@ -330,6 +421,7 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
   public void postCounterReportsUploadProviderById(
       String id,
       boolean overwrite,
+      boolean async,
       CounterReportDocument entity,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
@@ -337,34 +429,33 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
 
     Boolean isEditedManually = entity.getReportMetadata().getReportEditedManually();
     String editReason = entity.getReportMetadata().getEditReason();
+    if (async) {
+      createUploadJob(
+          id,
+          overwrite,
+          isEditedManually,
+          editReason,
+          entity.getContents().getData(),
+          okapiHeaders,
+          asyncResultHandler,
+          vertxContext);
+      return;
+    }
     decodeBase64Report(entity.getContents().getData(), vertxContext)
         .onSuccess(
             counterReports ->
-                PgHelper.getUDPfromDbById(vertxContext, okapiHeaders, id)
-                    .compose(
-                        udp -> {
-                          counterReports.forEach(
-                              cr -> {
-                                cr.setEditReason(editReason);
-                                cr.setReportEditedManually(isEditedManually);
-                                cr.withProviderId(udp.getId())
-                                    .withDownloadTime(Date.from(Instant.now()));
-                              });
-                          return succeededFuture(counterReports);
-                        })
-                    .compose(
-                        crs ->
-                            PgHelper.saveCounterReportsToDb(
-                                vertxContext, okapiHeaders, crs, overwrite))
+                PgHelper.saveUploadedCounterReports(
+                        vertxContext,
+                        okapiHeaders,
+                        id,
+                        counterReports,
+                        overwrite,
+                        isEditedManually,
+                        editReason)
                     .onSuccess(
-                        reportIds ->
+                        savedReports ->
                             asyncResultHandler.handle(
-                                succeededFuture(
-                                    PostCounterReportsUploadProviderByIdResponse
-                                        .respond200WithTextPlain(
-                                            String.format(
-                                                "Saved report with ids: %s",
-                                                String.join(",", reportIds))))))
+                                succeededFuture(createUploadResponse(savedReports))))
                     .onFailure(
                         throwable ->
                             asyncResultHandler.handle(
@@ -380,6 +471,124 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
                             String.format("Error saving report: %s", throwable)))));
   }
 
+  private void createUploadJob(
+      String providerId,
+      boolean overwrite,
+      Boolean isEditedManually,
+      String editReason,
+      String encodedData,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+
+    String[] base64Splitted = encodedData.split(",");
+    if (base64Splitted.length < 2) {
+      asyncResultHandler.handle(
+          succeededFuture(
+              PostCounterReportsUploadProviderByIdResponse.respond400WithTextPlain(
+                  "Error saving report: Report is empty.")));
+      return;
+    }
+
+    UploadJob job =
+        new UploadJob()
+            .withProviderId(providerId)
+            .withOverwrite(overwrite)
+            .withReportEditedManually(isEditedManually)
+            .withEditReason(editReason);
+    UploadJobWorker.createJob(vertxContext, okapiHeaders, job, base64Splitted[1])
+        .onSuccess(
+            createdJob ->
+                asyncResultHandler.handle(
+                    succeededFuture(
+                        PostCounterReportsUploadProviderByIdResponse.respond202WithApplicationJson(
+                            createdJob))))
+        .onFailure(
+            throwable ->
+                asyncResultHandler.handle(
+                    succeededFuture(
+                        PostCounterReportsUploadProviderByIdResponse.respond500WithTextPlain(
+                            String.format("Error creating upload job: %s", throwable)))));
+  }
+
+  @Override
+  public void getCounterReportsUploadJobsById(
+      String id,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    PgUtil.getById(
+        TABLE_NAME_UPLOAD_JOBS,
+        UploadJob.class,
+        id,
+        okapiHeaders,
+        vertxContext,
+        GetCounterReportsUploadJobsByIdResponse.class,
+        asyncResultHandler);
+  }
+
+  @Stream
+  @Override
+  public void postCounterReportsUploadProviderStreamById(
+      String id,
+      boolean overwrite,
+      boolean reportEditedManually,
+      String editReason,
+      InputStream entity,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+
+    if (streamedUpload == null) {
+      streamedUpload = new StreamedUpload(vertxContext);
+    }
+
+    if (StreamedUpload.isAborted(okapiHeaders)) {
+      streamedUpload.abort();
+      asyncResultHandler.handle(
+          succeededFuture(
+              PostCounterReportsUploadProviderStreamByIdResponse.respond400WithTextPlain(
+                  "Stream aborted")));
+      return;
+    }
+
+    streamedUpload.append(entity);
+    if (!StreamedUpload.isComplete(okapiHeaders)) {
+      return;
+    }
+
+    streamedUpload
+        .complete()
+        .compose(path -> parseUploadedReport(path, vertxContext))
+        .onSuccess(
+            counterReports ->
+                PgHelper.saveUploadedCounterReports(
+                        vertxContext,
+                        okapiHeaders,
+                        id,
+                        counterReports,
+                        overwrite,
+                        reportEditedManually,
+                        editReason)
+                    .onSuccess(
+                        savedReports ->
+                            asyncResultHandler.handle(
+                                succeededFuture(createUploadResponse(savedReports))))
+                    .onFailure(
+                        throwable ->
+                            asyncResultHandler.handle(
+                                succeededFuture(
+                                    PostCounterReportsUploadProviderStreamByIdResponse
+                                        .respond500WithTextPlain(
+                                            String.format("Error saving report: %s", throwable))))))
+        .onFailure(
+            throwable ->
+                asyncResultHandler.handle(
+                    succeededFuture(
+                        PostCounterReportsUploadProviderStreamByIdResponse.respond400WithTextPlain(
+                            String.format("Error saving report: %s", throwable)))));
+  }
+
   @Override
   public void getCounterReportsErrorsCodes(
       Map<String, String> okapiHeaders,
@@ -459,16 +668,15 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
             });
   }
 
-  private Response createExportResponseByFormat(CounterReport cr, String format) {
+  private Response createExportResponseByFormat(CounterReportJson cr, String format) {
     try {
       return csvMapper(cr)
           .map(
               csvString -> {
                 if ("xlsx".equals(format)) {
                   try {
-                    InputStream in = ExcelUtil.fromCSV(csvString);
                     BinaryOutStream bos = new BinaryOutStream();
-                    bos.setData(ByteStreams.toByteArray(in));
+                    bos.setData(XlsxWriter.fromCSV(csvString));
                     return GetCounterReportsExportByIdResponse
                         .respond200WithApplicationVndOpenxmlformatsOfficedocumentSpreadsheetmlSheet(
                             bos);
@@ -490,9 +698,8 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
   private Response createExportMultipleMonthsResponseByFormat(String csvString, String format) {
     if ("xlsx".equals(format)) {
       try {
-        InputStream in = ExcelUtil.fromCSV(csvString);
         BinaryOutStream bos = new BinaryOutStream();
-        bos.setData(ByteStreams.toByteArray(in));
+        bos.setData(XlsxWriter.fromCSV(csvString));
         return GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
             .respond200WithApplicationVndOpenxmlformatsOfficedocumentSpreadsheetmlSheet(bos);
       } catch (IOException e) {
@@ -513,15 +720,14 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
       Context vertxContext) {
 
     if (SUPPORTED_FORMATS.contains(format)) {
-      PgUtil.postgresClient(vertxContext, okapiHeaders)
-          .getById(
-              TABLE_NAME_COUNTER_REPORTS,
-              id,
-              CounterReport.class,
+      PgHelper.getCounterReportJson(vertxContext, okapiHeaders, id)
+          .onComplete(
               ar -> {
                 if (ar.succeeded()) {
                   executeBlocking(
-                          vertxContext, () -> createExportResponseByFormat(ar.result(), format))
+                          vertxContext,
+                          WorkerPool.EXPORT,
+                          () -> createExportResponseByFormat(ar.result(), format))
                       .onSuccess(resp -> asyncResultHandler.handle(succeededFuture(resp)))
                       .onFailure(
                           t ->
@@ -541,23 +747,172 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
     }
   }
 
-  private Response createExportMultipleMonthsResponseByReportVersion(
-      List<CounterReport> reportList, String format, String version) {
-    String csv;
-    try {
-      if (version.equals("4")) {
-        csv = counter4ReportsToCsv(reportList);
-      } else if (version.equals("5")) {
-        csv = counter5ReportsToCsv(reportList);
-      } else {
-        return GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
-            .respond400WithTextPlain(String.format(UNSUPPORTED_COUNTER_VERSION_MSG, version));
-      }
-    } catch (Exception e) {
+  /**
+   * Reads the counter reports through a database cursor, ordered by month, and converts each
+   * report to its CSV export as soon as it arrives. The report is read as JSON text and passed to
+   * the COUNTER deserializers directly. The reports are converted in parallel on the export pool,
+   * the cursor is paused while {@link #MAX_CONVERSIONS} conversions are running. Each export is
+   * added to a {@link ReportFragments.Merger} in the order of the months, so only the merged rows
+   * are held, not the reports. Reports without report are skipped.
+   *
+   * @return the merged CSV export, {@code null} if the reports can't be merged
+   */
+  private Future<String> streamCounterReports(
+      CQLWrapper cql, String version, Map<String, String> okapiHeaders, Context vertxContext) {
+    Promise<String> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .streamGet(
+            TABLE_NAME_COUNTER_REPORTS,
+            CounterReportJson.class,
+            PgHelper.FIELD_COUNTER_REPORT_JSON,
+            cql,
+            false,
+            null,
+            ar -> {
+              if (ar.failed()) {
+                result.fail(ar.cause());
+                return;
+              }
+              PostgresClientStreamResult<CounterReportJson> stream = ar.result();
+              ReportFragments.Merger merger = new ReportFragments.Merger();
+              // the handlers all run on the context's event loop, the merges are chained in the
+              // order of the rows and run one after the other
+              AtomicReference<Future<Void>> merged = new AtomicReference<>(succeededFuture());
+              AtomicInteger running = new AtomicInteger();
+              stream
+                  .handler(
+                      cr -> {
+                        if (cr.getReport() == null) {
+                          return;
+                        }
+                        if (running.incrementAndGet() >= MAX_CONVERSIONS) {
+                          stream.pause();
+                        }
+                        Future<String> csv =
+                            executeBlocking(
+                                vertxContext, WorkerPool.EXPORT, () -> convertReport(cr, version));
+                        merged.set(
+                            merged
+                                .get()
+                                .compose(v -> csv)
+                                .compose(
+                                    c ->
+                                        executeBlocking(
+                                            vertxContext, WorkerPool.EXPORT, () -> merger.add(c)))
+                                .<Void>mapEmpty()
+                                .onComplete(
+                                    m -> {
+                                      if (running.getAndDecrement() == MAX_CONVERSIONS) {
+                                        stream.resume();
+                                      }
+                                    }));
+                      })
+                  .endHandler(
+                      v ->
+                          merged
+                              .get()
+                              .compose(
+                                  m ->
+                                      executeBlocking(
+                                          vertxContext, WorkerPool.EXPORT, merger::toCSV))
+                              .onSuccess(result::tryComplete)
+                              .onFailure(result::tryFail))
+                  .exceptionHandler(result::tryFail);
+            });
+    return result.future();
+  }
+
+  /**
+   * Creates the export by merging the export fragments of the reports, if all reports have one.
+   * Otherwise the reports are read and converted to their exports, which are merged the same way.
+   */
+  private Future<Response> exportCounterReports(
+      CQLWrapper cql,
+      String providerId,
+      String reportName,
+      String version,
+      String begin,
+      String end,
+      String format,
+      Map<String, String> okapiHeaders,
+      Context vertxContext) {
+    return PgHelper.getReportFragments(
+            vertxContext,
+            okapiHeaders,
+            providerId,
+            reportName,
+            version,
+            YearMonth.parse(begin),
+            YearMonth.parse(end))
+        .compose(
+            fragments -> {
+              if (fragments != null) {
+                return executeBlocking(
+                    vertxContext,
+                    WorkerPool.EXPORT,
+                    () -> {
+                      String csv = ReportFragments.merge(fragments);
+                      return csv == null
+                          ? null
+                          : createExportMultipleMonthsResponseByFormat(csv, format);
+                    });
+              }
+              return Future.<Response>succeededFuture();
+            })
+        .compose(
+            resp -> {
+              if (resp != null) {
+                return succeededFuture(resp);
+              }
+              return streamCounterReports(cql, version, okapiHeaders, vertxContext)
+                  .compose(
+                      csv -> {
+                        if (csv == null) {
+                          return succeededFuture(
+                              GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                                  .respond500WithTextPlain(MERGE_ERR_MSG));
+                        }
+                        return executeBlocking(
+                            vertxContext,
+                            WorkerPool.EXPORT,
+                            () -> createExportMultipleMonthsResponseByFormat(csv, format));
+                      })
+                  .recover(
+                      t ->
+                          succeededFuture(
+                              GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                                  .respond500WithTextPlain(
+                                      t instanceof CounterReportAPIRuntimeException
+                                          ? t.getCause().getMessage()
+                                          : t.getMessage())));
+            });
+  }
+
+  private Response createExportMultipleMonthsResponseFromCache(byte[] content, String format) {
+    if ("xlsx".equals(format)) {
+      BinaryOutStream bos = new BinaryOutStream();
+      bos.setData(content);
       return GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
-          .respond500WithTextPlain(e.getMessage());
+          .respond200WithApplicationVndOpenxmlformatsOfficedocumentSpreadsheetmlSheet(bos);
+    }
+    return GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+        .respond200WithTextCsv(new String(content, StandardCharsets.UTF_8));
+  }
+
+  private void cacheExport(Context vertxContext, String key, long changeId, Response response) {
+    if (response.getStatus() != 200) {
+      return;
+    }
+    Object entity = response.getEntity();
+    byte[] content = null;
+    if (entity instanceof BinaryOutStream) {
+      content = ((BinaryOutStream) entity).getData();
+    } else if (entity instanceof String) {
+      content = ((String) entity).getBytes(StandardCharsets.UTF_8);
+    }
+    if (content != null) {
+      ExportCache.getInstance().put(vertxContext.owner(), key, changeId, content);
     }
-    return createExportMultipleMonthsResponseByFormat(csv, format);
   }
 
   @Override
@@ -574,31 +929,54 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
           Context vertxContext) {
 
     if (SUPPORTED_FORMATS.contains(format)) {
-      CQLWrapper cql = createGetMultipleReportsCQL(id, name, aversion, begin, end);
-      PgUtil.postgresClient(vertxContext, okapiHeaders)
-          .get(
-              TABLE_NAME_COUNTER_REPORTS,
-              CounterReport.class,
-              cql,
-              false,
-              ar -> {
-                if (ar.succeeded()) {
-                  executeBlocking(
-                          vertxContext,
-                          () ->
-                              createExportMultipleMonthsResponseByReportVersion(
-                                  ar.result().getResults(), format, aversion))
-                      .onSuccess(resp -> asyncResultHandler.handle(succeededFuture(resp)))
-                      .onFailure(
-                          t ->
-                              asyncResultHandler.handle(
-                                  succeededFuture(
-                                      GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
-                                          .respond500WithTextPlain(t.getMessage()))));
-                } else {
-                  ValidationHelper.handleError(ar.cause(), asyncResultHandler);
-                }
-              });
+      CQLWrapper cql;
+      try {
+        cql = createGetMultipleReportsCQL(id, name, aversion, begin, end);
+      } catch (DateTimeParseException e) {
+        asyncResultHandler.handle(
+            succeededFuture(
+                GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                    .respond400WithTextPlain(e.getMessage())));
+        return;
+      }
+      if (!aversion.equals("4") && !aversion.equals("5")) {
+        asyncResultHandler.handle(
+            succeededFuture(
+                GetCounterReportsExportProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                    .respond400WithTextPlain(
+                        String.format(UNSUPPORTED_COUNTER_VERSION_MSG, aversion))));
+        return;
+      }
+      // the change id is read before the reports, so a concurrent change invalidates the export
+      String cacheKey =
+          ExportCache.createKey(
+              TenantTool.tenantId(okapiHeaders), id, name, aversion, begin, end, format);
+      PgHelper.getReportsChangeId(vertxContext, okapiHeaders, id, name, aversion)
+          .compose(
+              changeId ->
+                  ExportCache.getInstance()
+                      .get(vertxContext.owner(), cacheKey, changeId)
+                      .compose(
+                          cached -> {
+                            if (cached != null) {
+                              return succeededFuture(
+                                  createExportMultipleMonthsResponseFromCache(cached, format));
+                            }
+                            return exportCounterReports(
+                                    cql,
+                                    id,
+                                    name,
+                                    aversion,
+                                    begin,
+                                    end,
+                                    format,
+                                    okapiHeaders,
+                                    vertxContext)
+                                .onSuccess(
+                                    resp -> cacheExport(vertxContext, cacheKey, changeId, resp));
+                          }))
+          .onSuccess(resp -> asyncResultHandler.handle(succeededFuture(resp)))
+          .onFailure(t -> ValidationHelper.handleError(t, asyncResultHandler));
     } else {
       asyncResultHandler.handle(
           succeededFuture(
@@ -607,6 +985,51 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
     }
   }
 
+  // index: counter_reports_identity_idx
+  @Override
+  public void
+      getCounterReportsMonthsProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEnd(
+          String id,
+          String name,
+          String aversion,
+          String begin,
+          String end,
+          Map<String, String> okapiHeaders,
+          Handler<AsyncResult<Response>> asyncResultHandler,
+          Context vertxContext) {
+
+    try {
+      YearMonth.parse(begin);
+      YearMonth.parse(end);
+    } catch (DateTimeParseException e) {
+      asyncResultHandler.handle(
+          succeededFuture(
+              GetCounterReportsMonthsProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                  .respond400WithTextPlain(e.getMessage())));
+      return;
+    }
+
+    PgHelper.getReportMonths(vertxContext, okapiHeaders, id, name, aversion, begin, end)
+        .onSuccess(
+            reports -> {
+              reports.forEach(
+                  cr -> cr.withProviderId(id).withReportName(name).withRelease(aversion));
+              CounterReports counterReports =
+                  new CounterReports().withCounterReports(reports).withTotalRecords(reports.size());
+              asyncResultHandler.handle(
+                  succeededFuture(
+                      GetCounterReportsMonthsProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                          .respond200WithApplicationJson(counterReports)));
+            })
+        .onFailure(
+            t ->
+                asyncResultHandler.handle(
+                    succeededFuture(
+                        GetCounterReportsMonthsProviderReportVersionFromToByIdAndNameAndAversionAndBeginAndEndResponse
+                            .respond500WithTextPlain(t.getMessage()))));
+  }
+
+  // index: counter_reports_identity_idx
   private CQLWrapper createGetMultipleReportsCQL(
       String providerId,
       String reportName,
@@ -615,101 +1038,93 @@ public class CounterReportAPI implements org.folio.rest.jaxrs.resource.CounterRe
       String endMonth) {
     Criteria providerCrit =
         new Criteria()
-            .addField(Constants.FIELD_NAME_PROVIDER_ID)
+            .addField(COLUMN_NAME_PROVIDER_ID)
+            .setJSONB(false)
             .setOperation(Constants.OPERATOR_EQUALS)
             .setVal(providerId);
     Criteria reportNameCrit =
         new Criteria()
-            .addField(Constants.FIELD_NAME_REPORT_NAME)
+            .addField(COLUMN_NAME_REPORT_NAME)
+            .setJSONB(false)
             .setOperation(Constants.OPERATOR_EQUALS)
             .setVal(reportName);
     Criteria releaseCrit =
         new Criteria()
-            .addField(Constants.FIELD_NAME_RELEASE)
+            .addField(COLUMN_NAME_RELEASE)
+            .setJSONB(false)
             .setOperation(Constants.OPERATOR_EQUALS)
             .setVal(reportVersion);
-    Criteria reportCrit =
-        new Criteria().addField("jsonb").setJSONB(false).setOperation("?").setVal("report");
     Criteria yearMonthBeginCrit =
         new Criteria()
-            .addField(Constants.FIELD_NAME_YEAR_MONTH)
+            .addField(COLUMN_NAME_YEAR_MONTH)
+            .setJSONB(false)
             .setOperation(">=")
-            .setVal(beginMonth);
+            .setVal(YearMonth.parse(beginMonth).atDay(1).toString());
     Criteria yearMonthEndCrit =
         new Criteria()
-            .addField(Constants.FIELD_NAME_YEAR_MONTH)
+            .addField(COLUMN_NAME_YEAR_MONTH)
+            .setJSONB(false)
             .setOperation("<=")
-            .setVal(endMonth);
+            .setVal(YearMonth.parse(endMonth).atDay(1).toString());
     Criterion criterion =
         new Criterion()
             .addCriterion(providerCrit)
             .addCriterion(reportNameCrit)
             .addCriterion(releaseCrit)
-            .addCriterion(reportCrit)
             .addCriterion(yearMonthBeginCrit)
             .addCriterion(yearMonthEndCrit);
+    // the months are merged in the order they are read
+    criterion.setOrder(new Order(COLUMN_NAME_YEAR_MONTH, Order.ORDER.ASC));
     return new CQLWrapper(criterion);
   }
 
-  private String counter4ReportsToCsv(List<CounterReport> reports) throws ReportMergeException {
-    List<Report> c4Reports =
-        reports.stream()
-            .map(cr -> Counter4Utils.fromJSON(Json.encode(cr.getReport())))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-    Report merge = Counter4Utils.merge(c4Reports);
-    return Counter4Utils.toCSV(merge);
-  }
-
-  private String counter5ReportsToCsv(List<CounterReport> reports) throws Counter5UtilsException {
-    List<Object> c5Reports =
-        reports.stream()
-            .map(this::internalReportToCOP5Report)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-    Object merge = Counter5Utils.merge(c5Reports);
-    return Counter5Utils.toCSV(merge);
-  }
-
-  private Object internalReportToCOP5Report(CounterReport report) {
+  private String convertReport(CounterReportJson report, String version) {
     try {
-      return Counter5Utils.fromJSON(Json.encode(report.getReport()));
-    } catch (Counter5UtilsException e) {
+      if (version.equals("4")) {
+        return Counter4Utils.toCSV(Counter4Utils.fromJSON(report.getReport()));
+      }
+      return Counter5Utils.toCSV(Counter5Utils.fromJSON(report.getReport()));
+    } catch (Exception e) {
       throw new CounterReportAPIRuntimeException(e);
     }
   }
 
-  private Future<List<CounterReport>> decodeBase64Report(String encodedData, Context vertxContext) {
-    Promise<List<CounterReport>> result = Promise.promise();
-    executeBlocking(
-            vertxContext,
-            () -> {
-              try {
-                String[] base64Splitted = encodedData.split(",");
-                if (base64Splitted.length < 2) {
-                  throw new ReportUploadException(new Throwable("Report is empty."));
-                }
-                byte[] reportAsBytes = Base64.getDecoder().decode(base64Splitted[1]);
-                return UploadHelper.getCounterReportsFromString(new String(reportAsBytes));
-              } catch (Exception e) {
-                throw new ReportUploadException(e);
-              }
-            })
-        .onSuccess(result::complete)
-        .onFailure(result::fail);
-    return result.future();
+  private Future<List<ParsedCounterReport>> decodeBase64Report(
+      String encodedData, Context vertxContext) {
+    return UploadHelper.getCounterReports(
+        vertxContext,
+        () -> {
+          String[] base64Splitted = encodedData.split(",");
+          if (base64Splitted.length < 2) {
+            throw new FileUploadException("Report is empty.");
+          }
+          byte[] reportAsBytes = Base64.getDecoder().decode(base64Splitted[1]);
+          return new String(reportAsBytes);
+        });
   }
 
-  private static class CounterReportAPIRuntimeException extends RuntimeException {
+  private Future<List<ParsedCounterReport>> parseUploadedReport(String path, Context vertxContext) {
+    return UploadHelper.getCounterReports(
+            vertxContext, () -> Files.readString(Path.of(path), StandardCharsets.UTF_8))
+        .onComplete(ar -> StreamedUpload.delete(vertxContext.owner(), path));
+  }
 
-    public CounterReportAPIRuntimeException(Throwable cause) {
-      super(cause);
-    }
+  /**
+   * Creates the response of a report upload, the number of months whose report was unchanged and
+   * therefore not written is returned in the {@value #HEADER_UNCHANGED_MONTHS} header.
+   */
+  private static Response createUploadResponse(SavedCounterReports savedReports) {
+    return Response.ok(
+            String.format(
+                "Saved report with ids: %s", String.join(",", savedReports.getIds())),
+            MediaType.TEXT_PLAIN)
+        .header(HEADER_UNCHANGED_MONTHS, savedReports.getUnchangedCount())
+        .build();
   }
 
-  private static class ReportUploadException extends RuntimeException {
+  private static class CounterReportAPIRuntimeException extends RuntimeException {
 
-    public ReportUploadException(Throwable cause) {
+    public CounterReportAPIRuntimeException(Throwable cause) {
       super(cause);
     }
   }
@@ -1,29 +1,35 @@
 package org.folio.rest.impl;
 
+import com.google.common.net.HttpHeaders;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonObject;
-import org.apache.commons.lang3.ArrayUtils;
 import org.folio.rest.annotations.Stream;
 import org.folio.rest.annotations.Validate;
-import org.folio.rest.jaxrs.model.ErmUsageFile;
 import org.folio.rest.jaxrs.resource.ErmUsageFiles;
 import org.folio.rest.persist.PgUtil;
 import org.folio.rest.tools.utils.BinaryOutStream;
+import org.folio.rest.util.ByteRange;
+import org.folio.rest.util.ErmUsageFileHelper;
+import org.folio.rest.util.ErmUsageFileUpload;
 
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Base64;
 import java.util.Map;
 
 import static org.folio.rest.util.Constants.TABLE_NAME_FILES;
 
 public class ErmUsageFilesAPI implements ErmUsageFiles {
 
-  private byte[] stream = new byte[0];
+  // RMB creates a new instance for each request, so each streamed upload has its own accumulator
+  private ErmUsageFileUpload upload;
+  private boolean readFailed = false;
 
   @Stream
   @Override
@@ -34,31 +40,43 @@ public class ErmUsageFilesAPI implements ErmUsageFiles {
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
 
+    if (upload == null) {
+      upload = new ErmUsageFileUpload(vertxContext, okapiHeaders);
+    }
+
     if (okapiHeaders.containsKey("streamed_abort")) {
-      PostErmUsageFilesResponse.respond500WithTextPlain("Stream aborted");
+      upload.abort();
       return;
     }
 
-    byte[] readBytes;
-    try {
-      readBytes = entity.readAllBytes();
-    } catch (IOException e) {
-      PostErmUsageFilesResponse.respond500WithTextPlain("Error reading stream");
+    byte[] readBytes = new byte[0];
+    if (!readFailed) {
+      try {
+        readBytes = entity.readAllBytes();
+      } catch (IOException e) {
+        readFailed = true;
+        upload.abort();
+      }
+    }
+
+    if (readFailed) {
+      if (okapiHeaders.containsKey("complete")) {
+        asyncResultHandler.handle(
+            Future.succeededFuture(
+                PostErmUsageFilesResponse.respond500WithTextPlain("Error reading stream")));
+      }
       return;
     }
 
     if (okapiHeaders.containsKey("complete")) {
-      String base64 = Base64.getEncoder().encodeToString(stream);
-      ErmUsageFile file = new ErmUsageFile().withData(base64);
-      PgUtil.postgresClient(vertxContext, okapiHeaders)
-          .save(
-              TABLE_NAME_FILES,
-              file,
+      upload
+          .complete()
+          .onComplete(
               ar -> {
                 if (ar.succeeded()) {
                   JsonObject result = new JsonObject();
                   result.put("id", ar.result());
-                  result.put("size", stream.length / 1000F);
+                  result.put("size", upload.getSize() / 1000F);
                   asyncResultHandler.handle(
                       Future.succeededFuture(
                           PostErmUsageFilesResponse.respond200WithTextJson(
@@ -71,7 +89,7 @@ public class ErmUsageFilesAPI implements ErmUsageFiles {
                 }
               });
     } else {
-      stream = ArrayUtils.addAll(stream, readBytes);
+      upload.append(readBytes);
     }
   }
 
@@ -82,27 +100,19 @@ public class ErmUsageFilesAPI implements ErmUsageFiles {
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
-    PgUtil.postgresClient(vertxContext, okapiHeaders)
-        .getById(
-            TABLE_NAME_FILES,
-            id,
-            ErmUsageFile.class,
+    ErmUsageFileHelper.getFileSize(vertxContext, okapiHeaders, id)
+        .compose(
+            size -> {
+              if (size == null) {
+                return Future.succeededFuture(
+                    GetErmUsageFilesByIdResponse.respond404WithTextPlain("Not found."));
+              }
+              return getFileResponse(id, size, okapiHeaders, vertxContext);
+            })
+        .onComplete(
             ar -> {
               if (ar.succeeded()) {
-                if (ar.result() == null) {
-                  asyncResultHandler.handle(
-                      Future.succeededFuture(
-                          GetErmUsageFilesByIdResponse.respond404WithTextPlain("Not found.")));
-                } else {
-                  String dataAsString = ar.result().getData();
-                  byte[] decoded = Base64.getDecoder().decode(dataAsString);
-                  BinaryOutStream binaryOutStream = new BinaryOutStream();
-                  binaryOutStream.setData(decoded);
-                  asyncResultHandler.handle(
-                      Future.succeededFuture(
-                          GetErmUsageFilesByIdResponse.respond200WithApplicationOctetStream(
-                              binaryOutStream)));
-                }
+                asyncResultHandler.handle(Future.succeededFuture(ar.result()));
               } else {
                 asyncResultHandler.handle(
                     Future.succeededFuture(
@@ -112,6 +122,64 @@ public class ErmUsageFilesAPI implements ErmUsageFiles {
             });
   }
 
+  /**
+   * Creates the response for an existing file. Supports conditional requests with {@code
+   * If-None-Match} and single byte ranges with {@code Range} and {@code If-Range}. Only the
+   * requested range is read from the database.
+   */
+  private Future<Response> getFileResponse(
+      String id, long size, Map<String, String> okapiHeaders, Context vertxContext) {
+    // files are never modified, so the id and size identify the content
+    String eTag = "\"" + id + "-" + size + "\"";
+
+    String ifNoneMatch = getHeader(okapiHeaders, HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch != null && (ifNoneMatch.contains(eTag) || ifNoneMatch.trim().equals("*"))) {
+      return Future.succeededFuture(
+          Response.notModified().header(HttpHeaders.ETAG, eTag).build());
+    }
+
+    String ifRange = getHeader(okapiHeaders, HttpHeaders.IF_RANGE);
+    ByteRange range =
+        (ifRange == null || ifRange.trim().equals(eTag))
+            ? ByteRange.parse(getHeader(okapiHeaders, HttpHeaders.RANGE), size)
+            : null;
+
+    if (range != null && !range.isSatisfiable()) {
+      return Future.succeededFuture(
+          Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+              .header(HttpHeaders.CONTENT_RANGE, range.getContentRange())
+              .build());
+    }
+
+    long start = (range == null) ? 0 : range.getStart();
+    long length = (range == null) ? size : range.getLength();
+    return ErmUsageFileHelper.getFileContent(vertxContext, okapiHeaders, id, start, length)
+        .map(
+            content -> {
+              BinaryOutStream binaryOutStream = new BinaryOutStream();
+              binaryOutStream.setData(content.getBytes());
+              ResponseBuilder builder =
+                  Response.status(range == null ? Status.OK : Status.PARTIAL_CONTENT)
+                      .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM)
+                      .header(HttpHeaders.CONTENT_LENGTH, content.length())
+                      .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                      .header(HttpHeaders.ETAG, eTag)
+                      .entity(binaryOutStream);
+              if (range != null) {
+                builder.header(HttpHeaders.CONTENT_RANGE, range.getContentRange());
+              }
+              return builder.build();
+            });
+  }
+
+  private static String getHeader(Map<String, String> okapiHeaders, String name) {
+    return okapiHeaders.entrySet().stream()
+        .filter(e -> e.getKey().equalsIgnoreCase(name))
+        .map(Map.Entry::getValue)
+        .findFirst()
+        .orElse(null);
+  }
+
   @Override
   @Validate
   public void deleteErmUsageFilesById(
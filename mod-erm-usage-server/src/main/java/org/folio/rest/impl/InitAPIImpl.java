@@ -0,0 +1,27 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.folio.rest.resource.interfaces.InitAPI;
+import org.folio.rest.util.ErmUsageFileHelper;
+import org.folio.rest.util.ExportCache;
+import org.folio.rest.util.UploadJobWorker;
+
+public class InitAPIImpl implements InitAPI {
+
+  @Override
+  public void init(Vertx vertx, Context context, Handler<AsyncResult<Boolean>> handler) {
+    // don't delay the deployment, unfinished upload jobs are resumed and abandoned
+    // uploads are deleted in the background
+    UploadJobWorker.resumeJobs(vertx, context);
+    ErmUsageFileHelper.deleteAbandonedUploads(vertx);
+    // cached exports of a previous run are unknown to the cache, they are deleted before any
+    // export is cached
+    ExportCache.getInstance()
+        .clearDirectory(vertx)
+        .onComplete(v -> handler.handle(Future.succeededFuture(true)));
+  }
+}
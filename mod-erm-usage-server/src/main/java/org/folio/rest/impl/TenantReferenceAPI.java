@@ -9,6 +9,7 @@ import java.util.Map;
 import javax.ws.rs.core.Response;
 import org.folio.rest.jaxrs.model.TenantAttributes;
 import org.folio.rest.tools.utils.TenantLoading;
+import org.folio.rest.util.CounterReportDataCompression;
 
 public class TenantReferenceAPI extends TenantAPI {
 
@@ -31,6 +32,11 @@ public class TenantReferenceAPI extends TenantAPI {
                   .add("counter-reports")
                   .perform(attributes, headers, vertxContext.owner(), promise);
               return promise.future();
+            })
+        .onSuccess(
+            i -> {
+              // don't delay enabling the module, stored reports are recompressed in the background
+              CounterReportDataCompression.recompress(vertxContext.owner(), tenantId);
             });
   }
 
@@ -0,0 +1,88 @@
+package org.folio.rest.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single byte range of a {@code Range} request header (RFC 7233), e.g. {@code bytes=0-499},
+ * {@code bytes=500-} or {@code bytes=-500}.
+ */
+public class ByteRange {
+
+  private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+  private final long start;
+  private final long end;
+  private final long size;
+
+  private ByteRange(long start, long end, long size) {
+    this.start = start;
+    this.end = end;
+    this.size = size;
+  }
+
+  /**
+   * Parses a {@code Range} header for a file of the given size.
+   *
+   * <p>Headers that are missing, malformed or request multiple ranges are ignored and the whole
+   * file is sent, as permitted by RFC 7233.
+   *
+   * @param header value of the {@code Range} header, may be {@code null}
+   * @param size size of the file in bytes
+   * @return the requested range, {@code null} if the header is ignored
+   */
+  public static ByteRange parse(String header, long size) {
+    if (header == null) {
+      return null;
+    }
+    Matcher matcher = RANGE_PATTERN.matcher(header.trim());
+    if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+      return null;
+    }
+
+    try {
+      if (matcher.group(1).isEmpty()) {
+        // suffix range, the last n bytes
+        long suffix = Long.parseLong(matcher.group(2));
+        return new ByteRange(Math.max(size - suffix, 0), size - 1, size);
+      }
+      long first = Long.parseLong(matcher.group(1));
+      long last = matcher.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(matcher.group(2));
+      if (last < first) {
+        return null;
+      }
+      return new ByteRange(first, Math.min(last, size - 1), size);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Checks if the range overlaps the file, a {@code 416 Range Not Satisfiable} should be sent
+   * otherwise.
+   *
+   * @return true if the range is satisfiable
+   */
+  public boolean isSatisfiable() {
+    return start <= end;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getLength() {
+    return end - start + 1;
+  }
+
+  /**
+   * Returns the value for the {@code Content-Range} response header.
+   *
+   * @return e.g. {@code bytes 0-499/1234}, only the size if the range is not satisfiable
+   */
+  public String getContentRange() {
+    return isSatisfiable()
+        ? String.format("bytes %d-%d/%d", start, end, size)
+        : String.format("bytes */%d", size);
+  }
+}
@@ -3,9 +3,20 @@ package org.folio.rest.util;
 public class Constants {
 
   public static final String TABLE_NAME_COUNTER_REPORTS = "counter_reports";
+  public static final String TABLE_NAME_COUNTER_REPORT_DATA = "counter_report_data";
+  public static final String TABLE_NAME_COUNTER_REPORT_FRAGMENTS = "counter_report_fragments";
+  public static final String TABLE_NAME_COUNTER_REPORT_METRICS = "counter_report_metrics";
   public static final String TABLE_NAME_CUSTOM_REPORTS = "custom_reports";
   public static final String TABLE_NAME_FILES = "files";
+  public static final String TABLE_NAME_FILES_DATA = "files_data";
+  public static final String TABLE_NAME_PROVIDER_REPORT_STATS = "provider_report_stats";
   public static final String TABLE_NAME_UDP = "usage_data_providers";
+  public static final String TABLE_NAME_UPLOAD_JOBS = "upload_jobs";
+  public static final String VIEW_NAME_COUNTER_REPORTS_WITH_DATA = "counter_reports_with_data";
+  public static final String COLUMN_NAME_PROVIDER_ID = "idx_provider_id";
+  public static final String COLUMN_NAME_RELEASE = "idx_release";
+  public static final String COLUMN_NAME_REPORT_NAME = "idx_report_name";
+  public static final String COLUMN_NAME_YEAR_MONTH = "idx_year_month";
   public static final String FIELD_NAME_AGGREGATOR = "'aggregator'";
   public static final String FIELD_NAME_HARVESTING_CONFIG = "'harvestingConfig'";
   public static final String FIELD_NAME_ID = "'id'";
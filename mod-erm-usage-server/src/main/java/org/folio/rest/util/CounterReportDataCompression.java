@@ -0,0 +1,95 @@
+package org.folio.rest.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.util.UUID;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.rest.persist.PostgresClient;
+
+/**
+ * Configures the compression of stored reports (see {@link
+ * Constants#TABLE_NAME_COUNTER_REPORT_DATA}) and recompresses reports stored with a different
+ * compression method in batches.
+ *
+ * <p>The compression method can be configured with the system property {@code
+ * counterReportData.compression} ({@code lz4} or {@code pglz}, default {@code lz4}), the batch size
+ * with {@code counterReportData.recompressBatchSize} (default 100). Compression methods require
+ * PostgreSQL 14 or later, with older versions reports are always compressed with {@code pglz}.
+ *
+ * <p>Reports of a tenant are recompressed when the module is enabled or upgraded for the tenant
+ * (see {@link org.folio.rest.impl.TenantReferenceAPI}).
+ */
+public class CounterReportDataCompression {
+
+  private static final Logger LOG = LogManager.getLogger(CounterReportDataCompression.class);
+  private static final String COMPRESSION =
+      System.getProperty("counterReportData.compression", "lz4");
+  private static final int BATCH_SIZE =
+      Integer.getInteger("counterReportData.recompressBatchSize", 100);
+  // reports are processed ordered by id, starting after this id
+  private static final UUID FIRST_ID = new UUID(0, 0);
+
+  private CounterReportDataCompression() {}
+
+  /**
+   * Sets the configured compression method, unless it is in use already, and recompresses the
+   * stored reports of a tenant. Reports are processed in batches ordered by id, each batch in its
+   * own transaction.
+   *
+   * @param vertx Vertx
+   * @param tenantId tenant id
+   * @return Future that completes when all reports are recompressed
+   */
+  public static Future<Void> recompress(Vertx vertx, String tenantId) {
+    PostgresClient pgClient = PostgresClient.getInstance(vertx, tenantId);
+    return select(
+            pgClient,
+            "SELECT set_counter_report_data_compression($1)",
+            Tuple.of(COMPRESSION),
+            row -> row.getString(0))
+        .compose(
+            method -> {
+              LOG.info("Compressing counter reports of tenant {} with {}", tenantId, method);
+              return recompressBatches(pgClient, FIRST_ID, 0);
+            })
+        .onSuccess(
+            count -> LOG.info("Recompressed {} counter reports of tenant {}", count, tenantId))
+        .onFailure(
+            t ->
+                LOG.warn(
+                    "Unable to recompress counter reports of tenant {}: {}",
+                    tenantId,
+                    t.getMessage()))
+        .mapEmpty();
+  }
+
+  private static Future<Integer> recompressBatches(
+      PostgresClient pgClient, UUID afterId, int total) {
+    return select(
+            pgClient,
+            "SELECT last_id, recompressed FROM recompress_counter_report_data($1, $2)",
+            Tuple.of(afterId, BATCH_SIZE),
+            row -> row)
+        .compose(
+            row -> {
+              UUID lastId = row.getUUID(0);
+              int count = total + row.getInteger(1);
+              return (lastId != null)
+                  ? recompressBatches(pgClient, lastId, count)
+                  : Future.succeededFuture(count);
+            });
+  }
+
+  private static <T> Future<T> select(
+      PostgresClient pgClient, String sql, Tuple params, Function<Row, T> mapper) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    pgClient.select(sql, params, result);
+    return result.future().map(rows -> mapper.apply(rows.iterator().next()));
+  }
+}
@@ -0,0 +1,53 @@
+package org.folio.rest.util;
+
+/**
+ * The release and the report of a CounterReport, with the report as JSON text as stored in the
+ * database. The report can be passed to the COUNTER deserializers as is, without mapping it to
+ * a {@link org.folio.rest.jaxrs.model.Report} and encoding it again.
+ *
+ * <p>Select it with {@link PgHelper#FIELD_COUNTER_REPORT_JSON} or {@link
+ * PgHelper#getCounterReportJson}.
+ */
+public class CounterReportJson {
+
+  private String id;
+  private String release;
+  private String report;
+
+  public CounterReportJson() {}
+
+  public CounterReportJson(String id, String release, String report) {
+    this.id = id;
+    this.release = release;
+    this.report = report;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getRelease() {
+    return release;
+  }
+
+  public void setRelease(String release) {
+    this.release = release;
+  }
+
+  /**
+   * Returns the report.
+   *
+   * @return JSON of the report, {@code null} if the CounterReport has no report
+   */
+  public String getReport() {
+    return report;
+  }
+
+  public void setReport(String report) {
+    this.report = report;
+  }
+}
@@ -0,0 +1,376 @@
+package org.folio.rest.util;
+
+import static org.folio.rest.util.Constants.TABLE_NAME_FILES;
+import static org.folio.rest.util.Constants.TABLE_NAME_FILES_DATA;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.hash.Hashing;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.rest.jaxrs.model.ErmUsageFile;
+import org.folio.rest.persist.PgUtil;
+import org.folio.rest.persist.PostgresClient;
+
+/**
+ * Stores the contents of {@link ErmUsageFile}s as binary chunks in {@link
+ * Constants#TABLE_NAME_FILES_DATA}, the files table only holds the file's id. Files with the same
+ * content, identified by its SHA-256 hash, share the stored chunks.
+ *
+ * <p>Files stored before have their content base64 encoded in {@link ErmUsageFile#getData()},
+ * those are still supported when reading.
+ */
+public class ErmUsageFileHelper {
+
+  static final int CHUNK_SIZE = 1024 * 1024;
+  private static final Logger LOG = LogManager.getLogger(ErmUsageFileHelper.class);
+  // files created by uploads that haven't completed after this time are deleted
+  private static final int ABANDONED_UPLOAD_SECONDS =
+      Integer.getInteger("files.abandonedUploadSeconds", 24 * 60 * 60);
+
+  // inserts the file and its chunks with a single statement, the chunks are only inserted if no
+  // other file has the same content
+  private static final String INSERT_FILE_SQL =
+      "WITH existing AS (SELECT COALESCE(data_id, id) AS data_id FROM "
+          + TABLE_NAME_FILES
+          + " WHERE content_hash = $4 LIMIT 1 FOR SHARE),"
+          + " file AS (INSERT INTO "
+          + TABLE_NAME_FILES
+          + " (id, jsonb, content_hash, data_id)"
+          + " VALUES ($1, $2, $4, (SELECT data_id FROM existing)))"
+          + " INSERT INTO "
+          + TABLE_NAME_FILES_DATA
+          + " (id, chunk, data) SELECT $1, ordinality - 1, data"
+          + " FROM unnest($3::bytea[]) WITH ORDINALITY AS chunks (data, ordinality)"
+          + " WHERE NOT EXISTS (SELECT 1 FROM existing)";
+
+  // stores the hash of a file, if another file has the same content the file references that
+  // content and its own chunks are deleted
+  private static final String UPDATE_CONTENT_HASH_SQL =
+      "WITH existing AS (SELECT COALESCE(data_id, id) AS data_id FROM "
+          + TABLE_NAME_FILES
+          + " WHERE content_hash = $2 AND id <> $1 LIMIT 1 FOR SHARE),"
+          + " file AS (UPDATE "
+          + TABLE_NAME_FILES
+          + " SET content_hash = $2, data_id = (SELECT data_id FROM existing),"
+          + " upload_started = NULL WHERE id = $1)"
+          + " DELETE FROM "
+          + TABLE_NAME_FILES_DATA
+          + " WHERE id = $1 AND EXISTS (SELECT 1 FROM existing)";
+
+  private static final String CREATE_FILE_SQL =
+      "INSERT INTO " + TABLE_NAME_FILES + " (id, jsonb, upload_started) VALUES ($1, $2, now())";
+
+  private static final String DELETE_ABANDONED_UPLOADS_SQL =
+      "DELETE FROM "
+          + TABLE_NAME_FILES
+          + " WHERE upload_started < now() - $1::int * interval '1 second'";
+
+  private static final String INSERT_CHUNK_SQL =
+      "INSERT INTO " + TABLE_NAME_FILES_DATA + " (id, chunk, data) VALUES ($1, $2, $3)";
+
+  private static final String SELECT_FILE_SQL =
+      "SELECT f.jsonb->>'data', d.data FROM "
+          + TABLE_NAME_FILES
+          + " f LEFT JOIN "
+          + TABLE_NAME_FILES_DATA
+          + " d ON d.id = COALESCE(f.data_id, f.id) WHERE f.id = $1 ORDER BY d.chunk";
+
+  private static final String SELECT_FILE_SIZE_SQL =
+      "SELECT (SELECT COALESCE(SUM(octet_length(d.data)), 0) FROM "
+          + TABLE_NAME_FILES_DATA
+          + " d WHERE d.id = COALESCE(f.data_id, f.id))"
+          + " + COALESCE(octet_length(decode(f.jsonb->>'data', 'base64')), 0)"
+          + " FROM "
+          + TABLE_NAME_FILES
+          + " f WHERE f.id = $1";
+
+  // returns the parts of the chunks overlapping the range [$2, $3), octet_length and substring
+  // only read the needed parts of the externally stored chunks
+  private static final String SELECT_FILE_RANGE_SQL =
+      "WITH chunks AS (SELECT chunk, data FROM "
+          + TABLE_NAME_FILES_DATA
+          + " WHERE id = (SELECT COALESCE(data_id, id) FROM "
+          + TABLE_NAME_FILES
+          + " WHERE id = $1)"
+          + " UNION ALL SELECT 0, decode(jsonb->>'data', 'base64') FROM "
+          + TABLE_NAME_FILES
+          + " WHERE id = $1 AND jsonb ? 'data'),"
+          + " offsets AS (SELECT chunk, data, octet_length(data) AS length,"
+          + " SUM(octet_length(data)) OVER (ORDER BY chunk) - octet_length(data) AS start"
+          + " FROM chunks)"
+          + " SELECT substring(data FROM (GREATEST($2 - start, 0) + 1)::INTEGER"
+          + " FOR (LEAST(start + length, $3) - GREATEST(start, $2))::INTEGER)"
+          + " FROM offsets WHERE start < $3 AND start + length > $2 ORDER BY chunk";
+
+  private ErmUsageFileHelper() {}
+
+  /**
+   * Stores the content of a new file, the content is shared with existing files having the same
+   * content.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param content content of the file
+   * @return Id of the created file
+   */
+  public static Future<String> saveFile(
+      Context vertxContext, Map<String, String> okapiHeaders, byte[] content) {
+    String id = UUID.randomUUID().toString();
+    JsonObject file;
+    try {
+      file = PostgresClient.pojo2JsonObject(new ErmUsageFile().withId(id));
+    } catch (JsonProcessingException e) {
+      return Future.failedFuture(e);
+    }
+
+    Buffer buffer = Buffer.buffer(content);
+    List<Buffer> chunks = new ArrayList<>();
+    for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+      chunks.add(buffer.slice(offset, Math.min(offset + CHUNK_SIZE, content.length)));
+    }
+
+    String contentHash = Hashing.sha256().hashBytes(content).toString();
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .execute(
+            INSERT_FILE_SQL,
+            Tuple.of(UUID.fromString(id), file, chunks.toArray(Buffer[]::new), contentHash),
+            result);
+    return result.future().map(id);
+  }
+
+  /**
+   * Creates a new file without content, the content is added with {@link #insertChunk}. The
+   * file is marked as incomplete until {@link #updateContentHash} is called, incomplete files are
+   * deleted by {@link #deleteAbandonedUploads} after a while.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @return Future that completes when the file is created
+   */
+  public static Future<Void> createFile(
+      Context vertxContext, Map<String, String> okapiHeaders, String id) {
+    JsonObject file;
+    try {
+      file = PostgresClient.pojo2JsonObject(new ErmUsageFile().withId(id));
+    } catch (JsonProcessingException e) {
+      return Future.failedFuture(e);
+    }
+
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .execute(CREATE_FILE_SQL, Tuple.of(UUID.fromString(id), file), result);
+    return result.future().mapEmpty();
+  }
+
+  /**
+   * Adds a chunk to the content of a file.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @param chunk index of the chunk, starting with 0
+   * @param data content of the chunk
+   * @return Future that completes when the chunk is stored
+   */
+  public static Future<Void> insertChunk(
+      Context vertxContext, Map<String, String> okapiHeaders, String id, int chunk, Buffer data) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .execute(INSERT_CHUNK_SQL, Tuple.of(UUID.fromString(id), chunk, data), result);
+    return result.future().mapEmpty();
+  }
+
+  /**
+   * Stores the SHA-256 hash of the content of a file after all chunks were added. If another file
+   * has the same content, the file references that content instead and its own chunks are deleted.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @param contentHash hex encoded SHA-256 hash of the content
+   * @return Future that completes when the hash is stored
+   */
+  public static Future<Void> updateContentHash(
+      Context vertxContext, Map<String, String> okapiHeaders, String id, String contentHash) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .execute(UPDATE_CONTENT_HASH_SQL, Tuple.of(UUID.fromString(id), contentHash), result);
+    return result.future().mapEmpty();
+  }
+
+  /**
+   * Deletes the files of uploads that were started more than {@code files.abandonedUploadSeconds}
+   * (default one day) ago but never completed, e.g. because the module was stopped during the
+   * upload. Runs for all tenants now and then periodically every hour.
+   *
+   * @param vertx Vertx
+   */
+  public static void deleteAbandonedUploads(Vertx vertx) {
+    vertx.setPeriodic(60 * 60 * 1000L, id -> deleteAbandonedUploadsOfAllTenants(vertx));
+    deleteAbandonedUploadsOfAllTenants(vertx);
+  }
+
+  private static void deleteAbandonedUploadsOfAllTenants(Vertx vertx) {
+    PgHelper.getTenantIds(vertx, TABLE_NAME_FILES)
+        .onSuccess(
+            tenantIds -> tenantIds.forEach(tenantId -> deleteAbandonedUploads(vertx, tenantId)))
+        .onFailure(t -> LOG.warn("Unable to delete abandoned uploads: {}", t.getMessage()));
+  }
+
+  /**
+   * Deletes the files of uploads of a tenant that were started more than {@code
+   * files.abandonedUploadSeconds} ago but never completed.
+   *
+   * @param vertx Vertx
+   * @param tenantId tenant id
+   * @return number of deleted files
+   */
+  public static Future<Integer> deleteAbandonedUploads(Vertx vertx, String tenantId) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PostgresClient.getInstance(vertx, tenantId)
+        .execute(DELETE_ABANDONED_UPLOADS_SQL, Tuple.of(ABANDONED_UPLOAD_SECONDS), result);
+    return result
+        .future()
+        .map(RowSet::rowCount)
+        .onSuccess(
+            count -> {
+              if (count > 0) {
+                LOG.info("Deleted {} abandoned uploads of tenant {}", count, tenantId);
+              }
+            })
+        .onFailure(
+            t ->
+                LOG.warn(
+                    "Unable to delete abandoned uploads of tenant {}: {}",
+                    tenantId,
+                    t.getMessage()));
+  }
+
+  /**
+   * Deletes a file and its content, unless the content is shared with other files.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @return Future that completes when the file is deleted
+   */
+  public static Future<Void> deleteFile(
+      Context vertxContext, Map<String, String> okapiHeaders, String id) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders).delete(TABLE_NAME_FILES, id, result);
+    return result.future().mapEmpty();
+  }
+
+  /**
+   * Returns the content of a file.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @return content of the file or {@code null} if not found
+   */
+  public static Future<byte[]> getFileContent(
+      Context vertxContext, Map<String, String> okapiHeaders, String id) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return Future.succeededFuture(null);
+    }
+
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(SELECT_FILE_SQL, Tuple.of(uuid), result);
+    return result
+        .future()
+        .map(
+            rows -> {
+              if (rows.size() == 0) {
+                return null;
+              }
+              Buffer content = Buffer.buffer();
+              for (Row row : rows) {
+                if (row.getBuffer(1) != null) {
+                  content.appendBuffer(row.getBuffer(1));
+                } else if (row.getString(0) != null) {
+                  // stored before the contents were moved to files_data
+                  return Base64.getDecoder().decode(row.getString(0));
+                }
+              }
+              return content.getBytes();
+            });
+  }
+
+  /**
+   * Returns the size of a file.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @return size of the file in bytes or {@code null} if not found
+   */
+  public static Future<Long> getFileSize(
+      Context vertxContext, Map<String, String> okapiHeaders, String id) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return Future.succeededFuture(null);
+    }
+
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(SELECT_FILE_SIZE_SQL, Tuple.of(uuid), result);
+    return result
+        .future()
+        .map(rows -> rows.size() == 0 ? null : rows.iterator().next().getLong(0));
+  }
+
+  /**
+   * Returns a part of the content of a file. Only the chunks overlapping the part are read.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the file
+   * @param start position of the first byte
+   * @param length number of bytes
+   * @return the requested part, shorter if the file ends before
+   */
+  public static Future<Buffer> getFileContent(
+      Context vertxContext, Map<String, String> okapiHeaders, String id, long start, long length) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return Future.failedFuture(e);
+    }
+
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(SELECT_FILE_RANGE_SQL, Tuple.of(uuid, start, start + length), result);
+    return result
+        .future()
+        .map(
+            rows -> {
+              Buffer content = Buffer.buffer((int) Math.min(length, Integer.MAX_VALUE));
+              rows.forEach(row -> content.appendBuffer(row.getBuffer(0)));
+              return content;
+            });
+  }
+}
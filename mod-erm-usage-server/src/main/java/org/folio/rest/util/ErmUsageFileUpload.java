@@ -0,0 +1,102 @@
+package org.folio.rest.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Accumulates the content of a streamed file upload. Full chunks are written to the database
+ * while the upload is still running, instead of holding the whole file in memory until it is
+ * complete.
+ *
+ * <p>Chunks are written one after another in the order they were appended. RMB doesn't allow to
+ * pause a streamed request, so if the client sends faster than the database stores, the full
+ * chunks not yet written are held in memory until it catches up.
+ *
+ * <p>If the upload is aborted or fails, the file and its chunks written so far are deleted. Files
+ * of uploads that never complete, e.g. because the module was stopped, are deleted by {@link
+ * ErmUsageFileHelper#deleteAbandonedUploads}.
+ */
+public class ErmUsageFileUpload {
+
+  private final Context vertxContext;
+  private final Map<String, String> okapiHeaders;
+  private final String id = UUID.randomUUID().toString();
+  private final Hasher hasher = Hashing.sha256().newHasher();
+  private Buffer buffer = Buffer.buffer();
+  private Future<Void> pending;
+  private int chunk = 0;
+  private long size = 0;
+
+  public ErmUsageFileUpload(Context vertxContext, Map<String, String> okapiHeaders) {
+    this.vertxContext = vertxContext;
+    this.okapiHeaders = okapiHeaders;
+    this.pending = ErmUsageFileHelper.createFile(vertxContext, okapiHeaders, id);
+  }
+
+  /**
+   * Appends bytes to the file, writes a chunk to the database whenever a chunk is full.
+   *
+   * @param bytes bytes to append
+   */
+  public void append(byte[] bytes) {
+    size += bytes.length;
+    hasher.putBytes(bytes);
+    buffer.appendBytes(bytes);
+    while (buffer.length() >= ErmUsageFileHelper.CHUNK_SIZE) {
+      writeChunk(buffer.getBuffer(0, ErmUsageFileHelper.CHUNK_SIZE));
+      buffer = buffer.getBuffer(ErmUsageFileHelper.CHUNK_SIZE, buffer.length());
+    }
+  }
+
+  /**
+   * Writes the remaining bytes and completes the upload. If another file has the same content,
+   * the written chunks are replaced by a reference to that content.
+   *
+   * @return Id of the file
+   */
+  public Future<String> complete() {
+    if (buffer.length() > 0) {
+      writeChunk(buffer);
+      buffer = Buffer.buffer();
+    }
+    String contentHash = hasher.hash().toString();
+    return pending
+        .compose(
+            v -> ErmUsageFileHelper.updateContentHash(vertxContext, okapiHeaders, id, contentHash))
+        .map(id)
+        .recover(t -> abort().compose(v -> Future.failedFuture(t)));
+  }
+
+  /**
+   * Aborts the upload and deletes what has been written so far.
+   *
+   * @return Future that completes when the file is deleted
+   */
+  public Future<Void> abort() {
+    buffer = Buffer.buffer();
+    return pending
+        .otherwiseEmpty()
+        .compose(v -> ErmUsageFileHelper.deleteFile(vertxContext, okapiHeaders, id));
+  }
+
+  /**
+   * Returns the number of bytes appended so far.
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    return size;
+  }
+
+  private void writeChunk(Buffer data) {
+    int index = chunk++;
+    pending =
+        pending.compose(
+            v -> ErmUsageFileHelper.insertChunk(vertxContext, okapiHeaders, id, index, data));
+  }
+}
@@ -0,0 +1,297 @@
+package org.folio.rest.util;
+
+import com.google.common.hash.Hashing;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.FileSystem;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caches generated exports of counter reports. Each entry is stored with the change id of the
+ * exported reports (see {@link PgHelper#getReportsChangeId}) and is only returned for the same
+ * change id, so entries become invalid as soon as one of the reports changes.
+ *
+ * <p>Entries are held in memory up to {@code exportCache.maxSize} bytes (default 64 MB, 0
+ * disables the cache) and evicted least recently used first. If the system property {@code
+ * exportCache.directory} is set, evicted entries are moved to files in that directory, up to
+ * {@code exportCache.maxDiskSize} bytes (default 512 MB). The directory must not be shared with
+ * other module instances, the files left by a previous run are deleted by {@link
+ * #clearDirectory}.
+ *
+ * <p>The sizes are limits for all tenants together. Additionally the entries of a single tenant
+ * are limited to {@code exportCache.maxTenantSize} (default 16 MB) in memory and {@code
+ * exportCache.maxTenantDiskSize} (default 128 MB) on disk, so that one tenant can't evict the
+ * exports of all others.
+ */
+public class ExportCache {
+
+  private static final Logger LOG = LogManager.getLogger(ExportCache.class);
+  // names of the files of cached exports, see getPath
+  private static final String FILE_NAME_PATTERN = "[0-9a-f]{64}";
+  private static final ExportCache INSTANCE =
+      new ExportCache(
+          Long.getLong("exportCache.maxSize", 64L * 1024 * 1024),
+          Long.getLong("exportCache.maxTenantSize", 16L * 1024 * 1024),
+          System.getProperty("exportCache.directory"),
+          Long.getLong("exportCache.maxDiskSize", 512L * 1024 * 1024),
+          Long.getLong("exportCache.maxTenantDiskSize", 128L * 1024 * 1024));
+
+  private final String directory;
+  private final Tier memory;
+  private final Tier disk;
+
+  ExportCache(
+      long maxSize,
+      long maxTenantSize,
+      String directory,
+      long maxDiskSize,
+      long maxTenantDiskSize) {
+    this.memory = new Tier(maxSize, maxTenantSize);
+    this.directory = directory;
+    this.disk = new Tier(maxDiskSize, maxTenantDiskSize);
+  }
+
+  public static ExportCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Creates the key of an export.
+   *
+   * @return key of the export
+   */
+  public static String createKey(
+      String tenantId,
+      String providerId,
+      String reportName,
+      String release,
+      String begin,
+      String end,
+      String format) {
+    return String.join("|", tenantId, providerId, reportName, release, begin, end, format);
+  }
+
+  // keys start with the tenant id, see createKey
+  private static String getTenantId(String key) {
+    return key.substring(0, Math.max(key.indexOf('|'), 0));
+  }
+
+  /**
+   * Deletes the files of cached exports left in {@code exportCache.directory} by a previous run,
+   * they are unknown to this cache and would never be deleted otherwise. Other files in the
+   * directory are kept.
+   *
+   * @param vertx Vertx
+   * @return Future that completes when the files are deleted, failures are only logged
+   */
+  public Future<Void> clearDirectory(Vertx vertx) {
+    if (directory == null) {
+      return Future.succeededFuture();
+    }
+    FileSystem fs = vertx.fileSystem();
+    return fs.exists(directory)
+        .compose(
+            exists ->
+                Boolean.TRUE.equals(exists)
+                    ? fs.readDir(directory, FILE_NAME_PATTERN)
+                    : Future.succeededFuture(List.<String>of()))
+        .compose(
+            files -> {
+              List<Future<Void>> deletions =
+                  files.stream().map(fs::delete).collect(Collectors.toList());
+              return CompositeFuture.join(new ArrayList<>(deletions));
+            })
+        .onFailure(
+            t -> LOG.warn("Unable to clear the export cache directory: {}", t.getMessage()))
+        .<Void>mapEmpty()
+        .otherwiseEmpty();
+  }
+
+  /**
+   * Returns a cached export.
+   *
+   * @param vertx Vertx
+   * @param key key of the export, see {@link #createKey}
+   * @param changeId current change id of the exported reports
+   * @return content of the export, {@code null} if not cached for the change id
+   */
+  public Future<byte[]> get(Vertx vertx, String key, long changeId) {
+    Entry diskEntry;
+    synchronized (this) {
+      Entry entry = memory.get(key);
+      if (entry != null && entry.changeId == changeId) {
+        return Future.succeededFuture(entry.content);
+      }
+      diskEntry = disk.get(key);
+      if (diskEntry == null || diskEntry.changeId != changeId) {
+        return Future.succeededFuture(null);
+      }
+    }
+    return vertx
+        .fileSystem()
+        .readFile(getPath(key))
+        .map(
+            buffer -> {
+              byte[] content = buffer.getBytes();
+              put(vertx, key, changeId, content);
+              return content;
+            })
+        .otherwise(
+            t -> {
+              LOG.warn("Unable to read cached export: {}", t.getMessage());
+              return null;
+            });
+  }
+
+  /**
+   * Adds an export to the cache, replacing a previous version of the export.
+   *
+   * @param vertx Vertx
+   * @param key key of the export, see {@link #createKey}
+   * @param changeId change id of the exported reports when the export was created
+   * @param content content of the export
+   */
+  public void put(Vertx vertx, String key, long changeId, byte[] content) {
+    if (!memory.fits(content.length)) {
+      return;
+    }
+    synchronized (this) {
+      if (disk.remove(key) != null) {
+        deleteFile(vertx, key);
+      }
+      memory
+          .put(key, new Entry(changeId, content))
+          .forEach(evicted -> moveToDisk(vertx, evicted.getKey(), evicted.getValue()));
+    }
+  }
+
+  private void moveToDisk(Vertx vertx, String key, Entry entry) {
+    if (directory == null || !disk.fits(entry.size)) {
+      return;
+    }
+    vertx
+        .fileSystem()
+        .mkdirs(directory)
+        .compose(v -> vertx.fileSystem().writeFile(getPath(key), Buffer.buffer(entry.content)))
+        .onSuccess(v -> addToDisk(vertx, key, new Entry(entry.changeId, entry.size)))
+        .onFailure(t -> LOG.warn("Unable to write cached export: {}", t.getMessage()));
+  }
+
+  private synchronized void addToDisk(Vertx vertx, String key, Entry entry) {
+    if (memory.get(key) != null) {
+      // added again while it was written
+      return;
+    }
+    disk.put(key, entry).forEach(evicted -> deleteFile(vertx, evicted.getKey()));
+  }
+
+  private void deleteFile(Vertx vertx, String key) {
+    vertx
+        .fileSystem()
+        .delete(getPath(key))
+        .onFailure(t -> LOG.warn("Unable to delete cached export: {}", t.getMessage()));
+  }
+
+  private String getPath(String key) {
+    String fileName = Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+    return Path.of(directory, fileName).toString();
+  }
+
+  /**
+   * Entries of the memory or the disk, evicted least recently used first when all entries or the
+   * entries of a tenant exceed their maximum size.
+   */
+  private static class Tier {
+
+    private final long maxSize;
+    private final long maxTenantSize;
+    // access ordered, the first entry is the least recently used one
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> tenantSizes = new HashMap<>();
+    private long size = 0;
+
+    Tier(long maxSize, long maxTenantSize) {
+      this.maxSize = maxSize;
+      this.maxTenantSize = maxTenantSize;
+    }
+
+    boolean fits(long entrySize) {
+      return maxSize > 0 && entrySize <= Math.min(maxSize, maxTenantSize);
+    }
+
+    Entry get(String key) {
+      return entries.get(key);
+    }
+
+    Entry remove(String key) {
+      Entry entry = entries.remove(key);
+      if (entry != null) {
+        size -= entry.size;
+        tenantSizes.computeIfPresent(
+            getTenantId(key), (t, s) -> s == entry.size ? null : s - entry.size);
+      }
+      return entry;
+    }
+
+    /**
+     * Adds an entry and evicts entries until the sizes are within their limits.
+     *
+     * @return the evicted entries
+     */
+    List<Map.Entry<String, Entry>> put(String key, Entry entry) {
+      remove(key);
+      String tenantId = getTenantId(key);
+      entries.put(key, entry);
+      size += entry.size;
+      tenantSizes.merge(tenantId, entry.size, Long::sum);
+
+      List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+      Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while (it.hasNext()
+          && (size > maxSize || tenantSizes.getOrDefault(tenantId, 0L) > maxTenantSize)) {
+        Map.Entry<String, Entry> eldest = it.next();
+        String eldestTenantId = getTenantId(eldest.getKey());
+        if (size > maxSize || eldestTenantId.equals(tenantId)) {
+          it.remove();
+          size -= eldest.getValue().size;
+          tenantSizes.computeIfPresent(
+              eldestTenantId,
+              (t, s) -> s == eldest.getValue().size ? null : s - eldest.getValue().size);
+          evicted.add(Map.entry(eldest.getKey(), eldest.getValue()));
+        }
+      }
+      return evicted;
+    }
+  }
+
+  private static class Entry {
+
+    private final long changeId;
+    private final byte[] content;
+    private final long size;
+
+    Entry(long changeId, byte[] content) {
+      this.changeId = changeId;
+      this.content = content;
+      this.size = content.length;
+    }
+
+    Entry(long changeId, long size) {
+      this.changeId = changeId;
+      this.content = null;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package org.folio.rest.util;
+
+import org.folio.rest.jaxrs.model.CounterReport;
+
+/**
+ * A month of an uploaded report, see {@link UploadHelper#getCounterReports}. The export fragment
+ * is created from the parsed COUNTER report of the month, see {@link ReportFragments}.
+ */
+public class ParsedCounterReport {
+
+  private final CounterReport counterReport;
+  private final String fragment;
+
+  public ParsedCounterReport(CounterReport counterReport, String fragment) {
+    this.counterReport = counterReport;
+    this.fragment = fragment;
+  }
+
+  public CounterReport getCounterReport() {
+    return counterReport;
+  }
+
+  /**
+   * Returns the export fragment of the month.
+   *
+   * @return the fragment, {@code null} if the report can't be exported
+   */
+  public String getFragment() {
+    return fragment;
+  }
+}
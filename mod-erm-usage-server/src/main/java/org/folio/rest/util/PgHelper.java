@@ -1,23 +1,31 @@
 package org.folio.rest.util;
 
-import static org.folio.rest.util.Constants.FIELD_NAME_PROVIDER_ID;
-import static org.folio.rest.util.Constants.FIELD_NAME_RELEASE;
-import static org.folio.rest.util.Constants.FIELD_NAME_REPORT_NAME;
-import static org.folio.rest.util.Constants.FIELD_NAME_YEAR_MONTH;
 import static org.folio.rest.util.Constants.OPERATOR_EQUALS;
 import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORTS;
+import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORT_DATA;
+import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORT_FRAGMENTS;
+import static org.folio.rest.util.Constants.TABLE_NAME_PROVIDER_REPORT_STATS;
 import static org.folio.rest.util.Constants.TABLE_NAME_UDP;
 
-import io.vertx.core.CompositeFuture;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.time.Instant;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import org.folio.rest.jaxrs.model.CounterReport;
@@ -27,10 +35,92 @@ import org.folio.rest.jaxrs.model.UsageDataProvider;
 import org.folio.rest.persist.Criteria.Criteria;
 import org.folio.rest.persist.Criteria.Criterion;
 import org.folio.rest.persist.PgUtil;
+import org.folio.rest.persist.PostgresClient;
 import org.folio.rest.persist.cql.CQLWrapper;
 
 public class PgHelper {
 
+  // the export fragments of the reports (see ReportFragments) are stored with the same statement,
+  // unless the existing fragment was created from the same report. The update trigger keeps an
+  // unchanged report as stored (see counter_report_data.sql), so the other fields are updated
+  // only. Returns the number of unchanged reports, the CTEs see the reports before the update.
+  private static final String UPSERT_COUNTER_REPORTS_SQL =
+      "WITH input AS (SELECT (report->>'id')::uuid AS id, report, n"
+          + " FROM jsonb_array_elements($1::jsonb) WITH ORDINALITY AS r (report, n)),"
+          + " fragments AS (INSERT INTO "
+          + TABLE_NAME_COUNTER_REPORT_FRAGMENTS
+          + " (id, report_hash, fragment)"
+          + " SELECT i.id, counter_report_hash(i.report->'report'), f.fragment"
+          + " FROM input i JOIN unnest($2::text[]) WITH ORDINALITY AS f (fragment, n) USING (n)"
+          + " WHERE f.fragment IS NOT NULL"
+          + " ON CONFLICT (id) DO UPDATE"
+          + " SET report_hash = EXCLUDED.report_hash, fragment = EXCLUDED.fragment"
+          + " WHERE "
+          + TABLE_NAME_COUNTER_REPORT_FRAGMENTS
+          + ".report_hash <> EXCLUDED.report_hash),"
+          + " saved AS (INSERT INTO "
+          + TABLE_NAME_COUNTER_REPORTS
+          + " (id, jsonb) SELECT id, report FROM input"
+          + " ON CONFLICT (id) DO UPDATE SET jsonb = EXCLUDED.jsonb)"
+          + " SELECT COUNT(*) FROM input i JOIN "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + " d ON d.id = i.id WHERE i.report ? 'report'"
+          + " AND d.report_hash = counter_report_hash(i.report->'report')";
+
+  // index: counter_reports_identity_idx
+  private static final String SELECT_REPORT_MONTHS_SQL =
+      "SELECT id, jsonb->>'yearMonth', (jsonb->>'failedAttempts')::int FROM "
+          + TABLE_NAME_COUNTER_REPORTS
+          + " WHERE idx_provider_id = text_to_uuid($1) AND idx_report_name = $2"
+          + " AND idx_release = $3 AND %s ORDER BY idx_year_month";
+
+  // only fragments created from the current report are returned
+  private static final String SELECT_REPORT_FRAGMENTS_SQL =
+      "SELECT f.fragment FROM "
+          + TABLE_NAME_COUNTER_REPORTS
+          + " r JOIN "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + " d ON d.id = r.id LEFT JOIN "
+          + TABLE_NAME_COUNTER_REPORT_FRAGMENTS
+          + " f ON f.id = r.id AND f.report_hash = d.report_hash"
+          + " WHERE r.idx_provider_id = text_to_uuid($1) AND r.idx_report_name = $2"
+          + " AND r.idx_release = $3 AND r.idx_year_month BETWEEN $4 AND $5"
+          + " ORDER BY r.idx_year_month";
+
+  /**
+   * Field list entry selecting the counter report including its report, which is stored in {@link
+   * Constants#TABLE_NAME_COUNTER_REPORT_DATA}.
+   */
+  public static final String FIELD_COUNTER_REPORT_WITH_DATA =
+      "jsonb || COALESCE((SELECT jsonb_build_object('report', report) FROM "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + " WHERE "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + ".id = "
+          + TABLE_NAME_COUNTER_REPORTS
+          + ".id), '{}'::jsonb) AS jsonb";
+
+  /**
+   * Field list entry selecting a {@link CounterReportJson}. The report is selected as JSON string
+   * value, so it is only unescaped when the row is mapped, not parsed.
+   */
+  public static final String FIELD_COUNTER_REPORT_JSON =
+      "jsonb_build_object('id', id, 'release', jsonb->>'release', 'report', (SELECT report::TEXT"
+          + " FROM "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + " WHERE "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + ".id = "
+          + TABLE_NAME_COUNTER_REPORTS
+          + ".id)) AS jsonb";
+
+  private static final String SELECT_COUNTER_REPORT_JSON_SQL =
+      "SELECT r.jsonb->>'release', d.report::TEXT FROM "
+          + TABLE_NAME_COUNTER_REPORTS
+          + " r LEFT JOIN "
+          + TABLE_NAME_COUNTER_REPORT_DATA
+          + " d ON d.id = r.id WHERE r.id = $1";
+
   private PgHelper() {}
 
   public static Future<UsageDataProvider> getUDPfromDbById(
@@ -57,89 +147,26 @@ public class PgHelper {
     return udpPromise.future();
   }
 
-  private static CQLWrapper createGetReportCQL(CounterReport counterReport) {
-    Criteria idCrit =
-        new Criteria()
-            .addField(FIELD_NAME_PROVIDER_ID)
-            .setJSONB(true)
-            .setOperation(OPERATOR_EQUALS)
-            .setVal(counterReport.getProviderId());
-    Criteria releaseCrit =
-        new Criteria()
-            .addField(FIELD_NAME_RELEASE)
-            .setOperation(OPERATOR_EQUALS)
-            .setVal(counterReport.getRelease());
-    Criteria reportNameCrit =
-        new Criteria()
-            .addField(FIELD_NAME_REPORT_NAME)
-            .setOperation(OPERATOR_EQUALS)
-            .setVal(counterReport.getReportName());
-    Criteria yearMonthCrit =
-        new Criteria()
-            .addField(FIELD_NAME_YEAR_MONTH)
-            .setOperation(OPERATOR_EQUALS)
-            .setVal(counterReport.getYearMonth());
-    Criterion criterion =
-        new Criterion()
-            .addCriterion(idCrit)
-            .addCriterion(releaseCrit)
-            .addCriterion(reportNameCrit)
-            .addCriterion(yearMonthCrit);
-    return new CQLWrapper(criterion);
-  }
-
-  // index: counter_reports_custom_getcsv_idx
-  public static Future<String> saveCounterReportToDb(
-      Context vertxContext,
-      Map<String, String> okapiHeaders,
-      CounterReport counterReport,
-      boolean overwrite) {
-
-    // check if CounterReport already exists
-    CQLWrapper cql = createGetReportCQL(counterReport);
-
-    Promise<String> idPromise = Promise.promise();
-    PgUtil.postgresClient(vertxContext, okapiHeaders)
-        .get(
-            TABLE_NAME_COUNTER_REPORTS,
-            CounterReport.class,
-            cql,
-            false,
-            h -> {
-              if (h.succeeded()) {
-                int resultSize = h.result().getResults().size();
-                if (resultSize == 1) {
-                  idPromise.complete(h.result().getResults().get(0).getId());
-                } else if (resultSize > 1) {
-                  idPromise.fail("Too many results");
-                } else {
-                  idPromise.complete(null);
-                }
-              } else {
-                idPromise.fail(h.cause());
-              }
-            });
-
-    // save report
-    return idPromise
-        .future()
-        .compose(
-            id -> {
-              if (id != null && !overwrite) {
-                return Future.failedFuture("Report already exists");
-              }
-
-              Promise<String> upsertPromise = Promise.promise();
-              PgUtil.postgresClient(vertxContext, okapiHeaders)
-                  .upsert(TABLE_NAME_COUNTER_REPORTS, id, counterReport, upsertPromise);
-              return upsertPromise.future();
-            });
-  }
-
-  public static Future<List<String>> saveCounterReportsToDb(
+  /**
+   * Saves CounterReports of the same usage data provider, report name and release. Existing
+   * reports of the same months are overwritten if {@code overwrite} is true. If their report is
+   * unchanged (compared by its SHA-256 hash), only the other fields, e.g. the download time or the
+   * edit reason, are updated and the stored report is kept. The export fragments, if given, are
+   * stored along with the reports, see {@link ReportFragments}.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param counterReports CounterReports to save
+   * @param fragments export fragments of the CounterReports, in the same order, {@code null} if
+   *     there are none
+   * @param overwrite Overwrite existing reports?
+   * @return ids of the saved CounterReports and the number of unchanged reports
+   */
+  public static Future<SavedCounterReports> saveCounterReportsToDb(
       Context vertxContext,
       Map<String, String> okapiHeaders,
       List<CounterReport> counterReports,
+      List<String> fragments,
       boolean overwrite) {
 
     // check required attributes for equality
@@ -158,7 +185,7 @@ public class PgHelper {
     String reportName = counterReports.get(0).getReportName();
 
     Future<List<CounterReport>> existingReports =
-        PgHelper.getExistingReports(
+        PgHelper.getExistingReportMonths(
             vertxContext,
             okapiHeaders,
             providerId,
@@ -174,20 +201,94 @@ public class PgHelper {
                     + existingList.stream()
                         .map(CounterReport::getYearMonth)
                         .collect(Collectors.joining(", ")));
-          } else {
-            @SuppressWarnings({"rawtypes", "squid:S3740"})
-            List<Future> saveFutures = new ArrayList<>();
-            counterReports.forEach(
-                cr -> saveFutures.add(saveCounterReportToDb(vertxContext, okapiHeaders, cr, true)));
-
-            return CompositeFuture.join(saveFutures)
-                .map(cf -> cf.list().stream().map(o -> (String) o).collect(Collectors.toList()));
           }
+
+          // there is at most one report per month, see counter_reports_identity_idx
+          Map<String, String> existingIds =
+              existingList.stream()
+                  .collect(Collectors.toMap(CounterReport::getYearMonth, CounterReport::getId));
+          counterReports.forEach(
+              cr ->
+                  cr.setId(
+                      existingIds.getOrDefault(cr.getYearMonth(), UUID.randomUUID().toString())));
+
+          JsonArray reports = new JsonArray();
+          try {
+            for (CounterReport cr : counterReports) {
+              reports.add(PostgresClient.pojo2JsonObject(cr));
+            }
+          } catch (JsonProcessingException e) {
+            return Future.failedFuture(e);
+          }
+
+          String[] fragmentArray =
+              fragments == null
+                  ? new String[counterReports.size()]
+                  : fragments.toArray(String[]::new);
+
+          // insert new and update existing reports with a single statement, so the statement
+          // level triggers on counter_reports fire only once
+          Promise<RowSet<Row>> upsertPromise = Promise.promise();
+          PgUtil.postgresClient(vertxContext, okapiHeaders)
+              .execute(UPSERT_COUNTER_REPORTS_SQL, Tuple.of(reports, fragmentArray), upsertPromise);
+          return upsertPromise
+              .future()
+              .map(
+                  rs ->
+                      new SavedCounterReports(
+                          counterReports.stream()
+                              .map(CounterReport::getId)
+                              .collect(Collectors.toList()),
+                          rs.iterator().next().getLong(0).intValue()));
         });
   }
 
   /**
-   * Returns those CounterReports that are present in the database.
+   * Assigns the usage data provider and the edit metadata to uploaded CounterReports and saves
+   * them.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param providerId Id of the usage data provider
+   * @param counterReports CounterReports parsed from the uploaded file, with their fragments
+   * @param overwrite Overwrite existing reports?
+   * @param isEditedManually Flag if report was edited manually
+   * @param editReason Reason why report was edited
+   * @return ids of the saved CounterReports and the number of unchanged reports
+   */
+  public static Future<SavedCounterReports> saveUploadedCounterReports(
+      Context vertxContext,
+      Map<String, String> okapiHeaders,
+      String providerId,
+      List<ParsedCounterReport> counterReports,
+      boolean overwrite,
+      Boolean isEditedManually,
+      String editReason) {
+    return getUDPfromDbById(vertxContext, okapiHeaders, providerId)
+        .compose(
+            udp -> {
+              List<CounterReport> reports =
+                  counterReports.stream()
+                      .map(ParsedCounterReport::getCounterReport)
+                      .collect(Collectors.toList());
+              reports.forEach(
+                  cr -> {
+                    cr.setEditReason(editReason);
+                    cr.setReportEditedManually(isEditedManually);
+                    cr.withProviderId(udp.getId()).withDownloadTime(Date.from(Instant.now()));
+                  });
+              List<String> fragments =
+                  counterReports.stream()
+                      .map(ParsedCounterReport::getFragment)
+                      .collect(Collectors.toList());
+              return saveCounterReportsToDb(
+                  vertxContext, okapiHeaders, reports, fragments, overwrite);
+            });
+  }
+
+  /**
+   * Returns id, yearMonth and failedAttempts of those CounterReports that are present in the
+   * database, without loading the reports themselves.
    *
    * @param vertxContext Vertx context
    * @param okapiHeaders okapiHeaders
@@ -195,69 +296,211 @@ public class PgHelper {
    * @param reportName Report name
    * @param release Counter release/version
    * @param yearMonths Months to check
-   * @return List of CounterReport
+   * @return List of CounterReport, containing only id, yearMonth and failedAttempts
    */
-  // index: counter_reports_custom_getcsv_idx
-  public static Future<List<CounterReport>> getExistingReports(
+  public static Future<List<CounterReport>> getExistingReportMonths(
       Context vertxContext,
       Map<String, String> okapiHeaders,
       String providerId,
       String reportName,
       String release,
       List<String> yearMonths) {
-    String months = String.join(",", yearMonths);
-
-    Criteria providerCrit =
-        new Criteria()
-            .addField(FIELD_NAME_PROVIDER_ID)
-            .setOperation(OPERATOR_EQUALS)
-            .setVal(providerId);
-    Criteria reportNameCrit =
-        new Criteria()
-            .addField(FIELD_NAME_REPORT_NAME)
-            .setOperation(OPERATOR_EQUALS)
-            .setVal(reportName);
-    Criteria releaseCrit =
-        new Criteria().addField(FIELD_NAME_RELEASE).setOperation(OPERATOR_EQUALS).setVal(release);
-    Criteria yearMonthCrit =
-        new Criteria()
-            .addField("jsonb->" + FIELD_NAME_YEAR_MONTH)
-            .setJSONB(false)
-            .setOperation("?|")
-            .setVal("{" + months + "}");
-    Criterion criterion =
-        new Criterion()
-            .addCriterion(providerCrit)
-            .addCriterion(reportNameCrit)
-            .addCriterion(releaseCrit)
-            .addCriterion(yearMonthCrit);
-
-    // Need to CQLWrapper from Criterion cause PostgresClient sometimes returns unexpected results
-    // when using just the criterion...
-    CQLWrapper cql = new CQLWrapper(criterion);
-
-    Promise<List<CounterReport>> result = Promise.promise();
+    return selectReportMonths(
+        vertxContext,
+        okapiHeaders,
+        "idx_year_month IN (SELECT year_month_to_date(m) FROM unnest($4::text[]) AS m)",
+        Tuple.of(providerId, reportName, release, yearMonths.toArray(String[]::new)));
+  }
+
+  /**
+   * Returns id, yearMonth and failedAttempts of the CounterReports present in the database for a
+   * range of months, without loading the reports themselves.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param providerId ProviderId
+   * @param reportName Report name
+   * @param release Counter release/version
+   * @param beginMonth First month (inclusive)
+   * @param endMonth Last month (inclusive)
+   * @return List of CounterReport, containing only id, yearMonth and failedAttempts
+   */
+  public static Future<List<CounterReport>> getReportMonths(
+      Context vertxContext,
+      Map<String, String> okapiHeaders,
+      String providerId,
+      String reportName,
+      String release,
+      String beginMonth,
+      String endMonth) {
+    return selectReportMonths(
+        vertxContext,
+        okapiHeaders,
+        "idx_year_month BETWEEN year_month_to_date($4) AND year_month_to_date($5)",
+        Tuple.of(providerId, reportName, release, beginMonth, endMonth));
+  }
+
+  /**
+   * Returns the CounterReport with the given id, including its report.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the CounterReport
+   * @return CounterReport or {@code null} if not found
+   */
+  public static Future<CounterReport> getCounterReportById(
+      Context vertxContext, Map<String, String> okapiHeaders, String id) {
+    try {
+      UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return Future.succeededFuture(null);
+    }
+
+    Criteria idCrit =
+        new Criteria().addField("id").setJSONB(false).setOperation(OPERATOR_EQUALS).setVal(id);
+    CQLWrapper cql = new CQLWrapper(new Criterion(idCrit));
+
+    Promise<CounterReport> result = Promise.promise();
     PgUtil.postgresClient(vertxContext, okapiHeaders)
         .get(
             TABLE_NAME_COUNTER_REPORTS,
             CounterReport.class,
+            new String[] {FIELD_COUNTER_REPORT_WITH_DATA},
             cql,
             false,
+            false,
             ar -> {
               if (ar.succeeded()) {
-                result.complete(ar.result().getResults());
+                result.complete(ar.result().getResults().stream().findFirst().orElse(null));
               } else {
-                result.tryFail(ar.cause());
+                result.fail(ar.cause());
               }
             });
     return result.future();
   }
 
-  // index: counter_reports_custom_errorcodes_idx
+  /**
+   * Returns the release and the report of a CounterReport, with the report as JSON text.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param id Id of the CounterReport
+   * @return CounterReportJson or {@code null} if not found
+   */
+  public static Future<CounterReportJson> getCounterReportJson(
+      Context vertxContext, Map<String, String> okapiHeaders, String id) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return Future.succeededFuture(null);
+    }
+
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(SELECT_COUNTER_REPORT_JSON_SQL, Tuple.of(uuid), result);
+    return result
+        .future()
+        .map(
+            rows -> {
+              if (rows.size() == 0) {
+                return null;
+              }
+              Row row = rows.iterator().next();
+              return new CounterReportJson(id, row.getString(0), row.getString(1));
+            });
+  }
+
+  private static Future<List<CounterReport>> selectReportMonths(
+      Context vertxContext, Map<String, String> okapiHeaders, String condition, Tuple params) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(String.format(SELECT_REPORT_MONTHS_SQL, condition), params, result);
+    return result
+        .future()
+        .map(
+            rows ->
+                StreamSupport.stream(rows.spliterator(), false)
+                    .map(
+                        row ->
+                            new CounterReport()
+                                .withId(row.getValue(0).toString())
+                                .withYearMonth(row.getString(1))
+                                .withFailedAttempts(row.getInteger(2)))
+                    .collect(Collectors.toList()));
+  }
+
+  /**
+   * Returns the export fragments of the CounterReports of a usage data provider, report name and
+   * release in a range of months, see {@link ReportFragments}.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param providerId ProviderId
+   * @param reportName Report name
+   * @param release Counter release/version
+   * @param begin first month
+   * @param end last month
+   * @return fragments ordered by month, {@code null} if there are no reports or a report has no
+   *     valid fragment
+   */
+  public static Future<List<String>> getReportFragments(
+      Context vertxContext,
+      Map<String, String> okapiHeaders,
+      String providerId,
+      String reportName,
+      String release,
+      YearMonth begin,
+      YearMonth end) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(
+            SELECT_REPORT_FRAGMENTS_SQL,
+            Tuple.of(providerId, reportName, release, begin.atDay(1), end.atDay(1)),
+            result);
+    return result
+        .future()
+        .map(
+            rows -> {
+              List<String> fragments = new ArrayList<>();
+              rows.forEach(row -> fragments.add(row.getString(0)));
+              return fragments.isEmpty() || fragments.contains(null) ? null : fragments;
+            });
+  }
+
+  /**
+   * Returns the change id of the CounterReports of a usage data provider, report name and release.
+   * The change id changes whenever one of the reports is added, changed or removed.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param providerId ProviderId
+   * @param reportName Report name
+   * @param release Counter release/version
+   * @return change id, 0 if there are no reports
+   */
+  public static Future<Long> getReportsChangeId(
+      Context vertxContext,
+      Map<String, String> okapiHeaders,
+      String providerId,
+      String reportName,
+      String release) {
+    String query =
+        "SELECT change_id FROM "
+            + TABLE_NAME_PROVIDER_REPORT_STATS
+            + " WHERE provider_id = $1 AND report_name = $2 AND release = $3";
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .select(query, Tuple.of(providerId, reportName, release), result);
+    return result
+        .future()
+        .map(rows -> rows.size() == 0 ? 0L : rows.iterator().next().getLong(0));
+  }
+
   public static Future<ErrorCodes> getErrorCodes(
       Context vertxContext, Map<String, String> okapiHeaders) {
     String query =
-        "SELECT DISTINCT(SUBSTRING(jsonb->>'failedReason','Number=([0-9]{1,4})')) FROM counter_reports WHERE jsonb->>'failedReason' IS NOT NULL";
+        "SELECT DISTINCT jsonb_object_keys(error_counts) FROM " + TABLE_NAME_PROVIDER_REPORT_STATS;
     Promise<ErrorCodes> result = Promise.promise();
     PgUtil.postgresClient(vertxContext, okapiHeaders)
         .select(
@@ -279,7 +522,10 @@ public class PgHelper {
 
   public static Future<ReportTypes> getReportTypes(
       Context vertxContext, Map<String, String> okapiHeaders) {
-    String query = "SELECT DISTINCT(jsonb->>'reportName') FROM counter_reports";
+    String query =
+        "SELECT DISTINCT report_name FROM "
+            + TABLE_NAME_PROVIDER_REPORT_STATS
+            + " WHERE report_name <> ''";
     Promise<ReportTypes> result = Promise.promise();
     PgUtil.postgresClient(vertxContext, okapiHeaders)
         .select(
@@ -299,4 +545,30 @@ public class PgHelper {
             });
     return result.future();
   }
+
+  /**
+   * Returns the ids of all tenants having the given table, i.e. the tenants this module is enabled
+   * for.
+   *
+   * @param vertx Vertx
+   * @param tableName name of the table
+   * @return List of tenant ids
+   */
+  public static Future<List<String>> getTenantIds(Vertx vertx, String tableName) {
+    // schema names are <tenant>_<module>
+    String schemaSuffix = PostgresClient.convertToPsqlStandard("").toLowerCase();
+    String query = "SELECT table_schema FROM information_schema.tables WHERE table_name = $1";
+
+    Promise<RowSet<Row>> result = Promise.promise();
+    PostgresClient.getInstance(vertx).select(query, Tuple.of(tableName), result);
+    return result
+        .future()
+        .map(
+            rows ->
+                StreamSupport.stream(rows.spliterator(), false)
+                    .map(row -> row.getString(0))
+                    .filter(schema -> schema.endsWith(schemaSuffix))
+                    .map(schema -> schema.substring(0, schema.length() - schemaSuffix.length()))
+                    .collect(Collectors.toList()));
+  }
 }
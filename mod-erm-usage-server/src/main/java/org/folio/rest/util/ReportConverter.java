@@ -0,0 +1,92 @@
+package org.folio.rest.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.niso.schemas.counter.Report;
+import org.olf.erm.usage.counter41.Counter4Utils;
+
+/**
+ * Converts COUNTER report models into the {@link org.folio.rest.jaxrs.model.Report} stored with a
+ * {@link org.folio.rest.jaxrs.model.CounterReport}, without serializing them to an intermediate
+ * JSON string.
+ */
+public class ReportConverter {
+
+  private static final ObjectMapper COUNTER4_MAPPER = Counter4Utils.createObjectMapper();
+  private static final Gson GSON = new Gson();
+
+  private ReportConverter() {}
+
+  /**
+   * Converts a COUNTER 4 report using the same mapping as {@link Counter4Utils#toJSON(Report)}.
+   *
+   * @param report COUNTER 4 report
+   * @return converted report
+   */
+  public static org.folio.rest.jaxrs.model.Report fromCOP4Report(Report report) {
+    return COUNTER4_MAPPER.convertValue(report, org.folio.rest.jaxrs.model.Report.class);
+  }
+
+  /**
+   * Converts a COUNTER 5 report object using the same mapping as {@code new Gson().toJson(report)}.
+   *
+   * @param report COUNTER 5 report object
+   * @return converted report
+   */
+  public static org.folio.rest.jaxrs.model.Report fromCOP5Report(Object report) {
+    org.folio.rest.jaxrs.model.Report result = new org.folio.rest.jaxrs.model.Report();
+    GSON.toJsonTree(report)
+        .getAsJsonObject()
+        .entrySet()
+        .forEach(e -> result.setAdditionalProperty(e.getKey(), toValue(e.getValue())));
+    return result;
+  }
+
+  private static Object toValue(JsonElement element) {
+    if (element.isJsonObject()) {
+      Map<String, Object> map = new LinkedHashMap<>();
+      element.getAsJsonObject().entrySet().forEach(e -> map.put(e.getKey(), toValue(e.getValue())));
+      return map;
+    } else if (element.isJsonArray()) {
+      JsonArray array = element.getAsJsonArray();
+      List<Object> list = new ArrayList<>(array.size());
+      array.forEach(e -> list.add(toValue(e)));
+      return list;
+    } else if (element.isJsonPrimitive()) {
+      return toValue(element.getAsJsonPrimitive());
+    } else {
+      return null;
+    }
+  }
+
+  private static Object toValue(JsonPrimitive primitive) {
+    if (primitive.isBoolean()) {
+      return primitive.getAsBoolean();
+    } else if (primitive.isNumber()) {
+      // same number types as Jackson would create when parsing the value
+      BigDecimal number = primitive.getAsBigDecimal();
+      if (number.scale() > 0 || number.toString().contains("E")) {
+        return number.doubleValue();
+      }
+      try {
+        return number.intValueExact();
+      } catch (ArithmeticException e) {
+        try {
+          return number.longValueExact();
+        } catch (ArithmeticException e2) {
+          return number.toBigInteger();
+        }
+      }
+    } else {
+      return primitive.getAsString();
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package org.folio.rest.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.niso.schemas.counter.Report;
+import org.olf.erm.usage.counter41.Counter4Utils;
+import org.olf.erm.usage.counter50.Counter5Utils;
+
+/**
+ * Creates and merges export fragments of counter reports. A fragment is the CSV export of a single
+ * month, created once when an uploaded report is parsed. Exports of multiple months are created
+ * by merging the fragments of the months, without converting the reports to COUNTER objects
+ * again.
+ *
+ * <p>A fragment consists of a header, a column row and one row per item and metric. The column
+ * row ends with the month of the report (e.g. {@code Dec-2018}), the preceding {@code Reporting
+ * Period} columns hold the totals of the item. The merged export has the same layout, with one
+ * month column per fragment and the totals summed up, like the export created by merging the
+ * reports with {@link Counter4Utils#merge} or {@link Counter5Utils#merge}. The header is the one
+ * of the first month, with its reporting period extended to the last month and the run date set
+ * to today.
+ */
+public class ReportFragments {
+
+  private static final Logger LOG = LogManager.getLogger(ReportFragments.class);
+  private static final Pattern MONTH_PATTERN = Pattern.compile("[A-Z][a-z]{2}-\\d{4}");
+  private static final Pattern TOTAL_PATTERN = Pattern.compile("Reporting[ _]Period.*");
+  // COUNTER 4 header cell followed by the date the export was created
+  private static final String DATE_RUN = "Date run";
+  private static final Pattern QUOTE_PATTERN = Pattern.compile("[,\"\r\n]");
+  private static final DateTimeFormatter MONTH_FORMATTER =
+      DateTimeFormatter.ofPattern("MMM-yyyy", Locale.ENGLISH);
+  private static final CsvMapper CSV_MAPPER =
+      new CsvMapper().enable(CsvParser.Feature.WRAP_AS_ARRAY);
+
+  private ReportFragments() {}
+
+  /**
+   * Creates the fragment of a parsed COUNTER report of a single month.
+   *
+   * @param counterReport COUNTER 4 {@link Report} or COUNTER 5 report
+   * @param release release of the report, {@code 4} or {@code 5}
+   * @return the fragment, {@code null} if the report can't be exported
+   */
+  public static String create(Object counterReport, String release) {
+    try {
+      if ("4".equals(release)) {
+        return Counter4Utils.toCSV((Report) counterReport);
+      } else if ("5".equals(release)) {
+        return Counter5Utils.toCSV(counterReport);
+      }
+    } catch (Exception e) {
+      LOG.debug("Unable to create fragment of release {} report: {}", release, e.getMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Merges the fragments of consecutive months of the same usage data provider, report name and
+   * release.
+   *
+   * @param fragments fragments ordered by month
+   * @return CSV export of all months, {@code null} if the fragments can't be merged
+   */
+  public static String merge(List<String> fragments) {
+    Merger merger = new Merger();
+    for (String fragment : fragments) {
+      if (!merger.add(fragment)) {
+        return null;
+      }
+    }
+    return merger.toCSV();
+  }
+
+  private static List<String[]> parse(String fragment) throws IOException {
+    try (MappingIterator<String[]> it =
+        CSV_MAPPER.readerFor(String[].class).readValues(fragment)) {
+      return it.readAll();
+    }
+  }
+
+  private static int findColumnRow(List<String[]> rows) {
+    for (int i = 0; i < rows.size(); i++) {
+      String[] row = rows.get(i);
+      if (row.length > 1 && MONTH_PATTERN.matcher(row[row.length - 1]).matches()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isEmpty(String[] row) {
+    return Arrays.stream(row).allMatch(String::isEmpty);
+  }
+
+  private static void appendRow(StringBuilder sb, String[] row, String lineSeparator) {
+    sb.append(Arrays.stream(row).map(ReportFragments::quote).collect(Collectors.joining(",")))
+        .append(lineSeparator);
+  }
+
+  private static String quote(String value) {
+    if (QUOTE_PATTERN.matcher(value).find()) {
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+    return value;
+  }
+
+  /**
+   * Merges fragments one after the other as they are added, only the merged rows are held, not
+   * the fragments. The fragments have to be added in the order of their months, not concurrently.
+   */
+  public static class Merger {
+
+    private List<String[]> preamble;
+    private String[] columns;
+    private final List<Integer> totalColumns = new ArrayList<>();
+    private final List<String> months = new ArrayList<>();
+    private YearMonth firstMonth;
+    private YearMonth lastMonth;
+    private String lineSeparator;
+    private final Map<List<String>, Item> items = new LinkedHashMap<>();
+    private boolean failed;
+
+    /**
+     * Adds the fragment of the next month.
+     *
+     * @param fragment fragment
+     * @return false if the fragment can't be merged with the fragments added before, the merged
+     *     export is {@code null} then
+     */
+    public boolean add(String fragment) {
+      if (failed || fragment == null || !merge(fragment)) {
+        failed = true;
+      }
+      return !failed;
+    }
+
+    /**
+     * Returns the merged export.
+     *
+     * @return CSV export of all added months, {@code null} if no fragment was added or a fragment
+     *     couldn't be merged
+     */
+    public String toCSV() {
+      if (failed || columns == null) {
+        return null;
+      }
+
+      String firstEnd = firstMonth.atEndOfMonth().toString();
+      String lastEnd = lastMonth.atEndOfMonth().toString();
+      StringBuilder sb = new StringBuilder();
+      boolean dateRun = false;
+      for (String[] row : preamble) {
+        // the reporting period of the first month is extended to the last month
+        String[] cells =
+            Arrays.stream(row).map(cell -> cell.replace(firstEnd, lastEnd)).toArray(String[]::new);
+        // the fragment was created when the report was saved, an export is run today
+        if (dateRun && cells.length > 0) {
+          cells[0] = LocalDate.now().toString();
+        }
+        dateRun = cells.length > 0 && DATE_RUN.equalsIgnoreCase(cells[0]);
+        appendRow(sb, cells, lineSeparator);
+      }
+      List<String> columnRow = new ArrayList<>(Arrays.asList(columns));
+      columnRow.addAll(months);
+      appendRow(sb, columnRow.toArray(String[]::new), lineSeparator);
+      for (Item item : items.values()) {
+        appendRow(sb, item.toRow(totalColumns, months.size()), lineSeparator);
+      }
+      return sb.toString();
+    }
+
+    private boolean merge(String fragment) {
+      List<String[]> rows;
+      try {
+        rows = parse(fragment);
+      } catch (IOException e) {
+        return false;
+      }
+      int columnRow = findColumnRow(rows);
+      if (columnRow < 0) {
+        return false;
+      }
+      String[] fragmentColumns = rows.get(columnRow);
+      int monthColumn = fragmentColumns.length - 1;
+      YearMonth month;
+      try {
+        month = YearMonth.parse(fragmentColumns[monthColumn], MONTH_FORMATTER);
+      } catch (DateTimeParseException e) {
+        return false;
+      }
+
+      if (columns == null) {
+        preamble = new ArrayList<>(rows.subList(0, columnRow));
+        columns = Arrays.copyOf(fragmentColumns, monthColumn);
+        for (int c = 0; c < columns.length; c++) {
+          if (TOTAL_PATTERN.matcher(columns[c]).matches()) {
+            totalColumns.add(c);
+          }
+        }
+        firstMonth = month;
+        lineSeparator = fragment.contains("\r\n") ? "\r\n" : "\n";
+      } else if (!Arrays.equals(columns, Arrays.copyOf(fragmentColumns, monthColumn))) {
+        return false;
+      }
+      lastMonth = month;
+      int monthIndex = months.size();
+      months.add(fragmentColumns[monthColumn]);
+
+      for (String[] row : rows.subList(columnRow + 1, rows.size())) {
+        if (isEmpty(row)) {
+          continue;
+        }
+        if (row.length != fragmentColumns.length) {
+          return false;
+        }
+        List<String> key = new ArrayList<>();
+        for (int c = 0; c < monthColumn; c++) {
+          if (!totalColumns.contains(c)) {
+            key.add(row[c]);
+          }
+        }
+        Item item = items.computeIfAbsent(key, k -> new Item(row, totalColumns));
+        if (!item.add(row, totalColumns, monthIndex)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** An item and metric of the merged export. */
+  private static class Item {
+
+    private final String[] cells;
+    private final Long[] totals;
+    private final List<String> months = new ArrayList<>();
+
+    Item(String[] row, List<Integer> totalColumns) {
+      this.cells = Arrays.copyOf(row, row.length - 1);
+      this.totals = new Long[totalColumns.size()];
+    }
+
+    /** Adds the values of a month, returns false if a total isn't a number. */
+    boolean add(String[] row, List<Integer> totalColumns, int month) {
+      for (int t = 0; t < totalColumns.size(); t++) {
+        String value = row[totalColumns.get(t)];
+        if (value.isEmpty()) {
+          continue;
+        }
+        try {
+          totals[t] = (totals[t] == null ? 0 : totals[t]) + Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+      // months the item has no values for are empty
+      while (months.size() < month) {
+        months.add("");
+      }
+      months.add(row[row.length - 1]);
+      return true;
+    }
+
+    String[] toRow(List<Integer> totalColumns, int monthCount) {
+      String[] row = Arrays.copyOf(cells, cells.length + monthCount);
+      for (int t = 0; t < totalColumns.size(); t++) {
+        row[totalColumns.get(t)] = totals[t] == null ? "" : totals[t].toString();
+      }
+      for (int m = 0; m < monthCount; m++) {
+        row[cells.length + m] = m < months.size() ? months.get(m) : "";
+      }
+      return row;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package org.folio.rest.util;
+
+import java.util.List;
+
+/** Result of saving CounterReports, see {@link PgHelper#saveCounterReportsToDb}. */
+public class SavedCounterReports {
+
+  private final List<String> ids;
+  private final int unchangedCount;
+
+  public SavedCounterReports(List<String> ids, int unchangedCount) {
+    this.ids = ids;
+    this.unchangedCount = unchangedCount;
+  }
+
+  /**
+   * Returns the ids of the saved CounterReports, including the unchanged ones.
+   *
+   * @return List of ids
+   */
+  public List<String> getIds() {
+    return ids;
+  }
+
+  /**
+   * Returns the number of CounterReports whose report was not written because an existing report
+   * of the same month has the same report. Their other fields were updated.
+   *
+   * @return number of unchanged CounterReports
+   */
+  public int getUnchangedCount() {
+    return unchangedCount;
+  }
+}
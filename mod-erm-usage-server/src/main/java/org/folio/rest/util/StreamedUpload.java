@@ -0,0 +1,92 @@
+package org.folio.rest.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Accumulates the chunks of a request handled by a {@code @Stream} annotated method in a temporary
+ * file.
+ *
+ * <p>RMB invokes a streaming method once per received chunk, on the same resource instance for
+ * all chunks of a request. The upload is therefore kept in an instance field of the resource, like
+ * {@link ErmUsageFileUpload}. Chunks are appended in the order they arrive, so the content never
+ * needs to be held in memory as a whole.
+ */
+public class StreamedUpload {
+
+  public static final String HEADER_STREAM_COMPLETE = "complete";
+  public static final String HEADER_STREAM_ABORT = "streamed_abort";
+
+  private static final Logger LOG = LogManager.getLogger(StreamedUpload.class);
+
+  private final Vertx vertx;
+  private final Future<String> path;
+  private Future<AsyncFile> file;
+
+  public StreamedUpload(Context vertxContext) {
+    this.vertx = vertxContext.owner();
+    this.path = vertx.fileSystem().createTempFile("mod-erm-usage-", ".upload");
+    this.file = path.compose(p -> vertx.fileSystem().open(p, new OpenOptions().setWrite(true)));
+  }
+
+  public static boolean isComplete(Map<String, String> okapiHeaders) {
+    return okapiHeaders.containsKey(HEADER_STREAM_COMPLETE);
+  }
+
+  public static boolean isAborted(Map<String, String> okapiHeaders) {
+    return okapiHeaders.containsKey(HEADER_STREAM_ABORT);
+  }
+
+  /**
+   * Appends a chunk to the upload. A failure while reading the chunk is reported by {@link
+   * #complete()}.
+   *
+   * @param chunk chunk of the request body
+   */
+  public void append(InputStream chunk) {
+    Buffer buffer;
+    try {
+      buffer = Buffer.buffer(chunk.readAllBytes());
+    } catch (IOException e) {
+      file = file.compose(f -> f.close()).compose(v -> Future.failedFuture(e));
+      return;
+    }
+    if (buffer.length() == 0) {
+      return;
+    }
+    file = file.compose(f -> f.write(buffer).map(f));
+  }
+
+  /**
+   * Finishes the upload.
+   *
+   * @return path of the temporary file containing the uploaded content. The caller is responsible
+   *     for deleting it with {@link #delete(Vertx, String)}.
+   */
+  public Future<String> complete() {
+    return file.compose(f -> f.close())
+        .compose(v -> path)
+        .onFailure(t -> path.onSuccess(p -> delete(vertx, p)));
+  }
+
+  /** Aborts the upload and removes its temporary file. */
+  public void abort() {
+    file.compose(f -> f.close()).onComplete(ar -> path.onSuccess(p -> delete(vertx, p)));
+  }
+
+  public static void delete(Vertx vertx, String path) {
+    vertx
+        .fileSystem()
+        .delete(path)
+        .onFailure(t -> LOG.warn("Failed deleting temporary file {}: {}", path, t.getMessage()));
+  }
+}
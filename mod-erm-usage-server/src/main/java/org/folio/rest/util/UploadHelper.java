@@ -1,62 +1,173 @@
 package org.folio.rest.util;
 
-import com.google.gson.Gson;
-import io.vertx.core.json.Json;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import java.io.IOException;
 import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.folio.rest.jaxrs.model.CounterReport;
+import org.folio.rest.util.VertxUtil.WorkerPool;
 import org.niso.schemas.counter.Report;
 import org.olf.erm.usage.counter41.Counter4Utils;
 import org.olf.erm.usage.counter41.Counter4Utils.ReportSplitException;
 import org.olf.erm.usage.counter41.csv.mapper.MapperException;
 import org.olf.erm.usage.counter50.Counter5Utils;
 import org.olf.erm.usage.counter50.Counter5Utils.Counter5UtilsException;
-import org.openapitools.client.model.COUNTERDatabaseReport;
-import org.openapitools.client.model.COUNTERItemReport;
-import org.openapitools.client.model.COUNTERPlatformReport;
-import org.openapitools.client.model.COUNTERTitleReport;
 import org.openapitools.client.model.SUSHIReportHeader;
 
 public class UploadHelper {
 
   private static final String MSG_WRONG_FORMAT = "Wrong format supplied";
+  private static final String CSV_HEADER_COP5 = "Report_Name";
+  private static final int SNIFF_LENGTH = 4096;
 
-  public static List<CounterReport> getCounterReportsFromString(String content)
-      throws FileUploadException, Counter5UtilsException, ReportSplitException {
-    String release = getCounterRelease(content);
+  /**
+   * Parses a report and splits it into {@link CounterReport}s of single months.
+   *
+   * <p>The report is read, parsed and split in one task on the {@link WorkerPool#UPLOAD} pool,
+   * every month is then converted in a task of its own on the same pool, so that the months of a
+   * report are converted in parallel. The export fragment of a month is created from its parsed
+   * COUNTER report in the same task.
+   *
+   * @param vertxContext Vert.x context
+   * @param content supplies the report content, called on a worker thread
+   * @return Future with the months of the report
+   */
+  public static Future<List<ParsedCounterReport>> getCounterReports(
+      Context vertxContext, Callable<String> content) {
+    return VertxUtil.executeBlocking(vertxContext, WorkerPool.UPLOAD, () -> splitMonths(content))
+        .compose(
+            months -> {
+              List<Future<ParsedCounterReport>> conversions =
+                  months.stream()
+                      .map(
+                          month ->
+                              VertxUtil.executeBlocking(vertxContext, WorkerPool.UPLOAD, month))
+                      .collect(Collectors.toList());
+              return CompositeFuture.all(new ArrayList<>(conversions));
+            })
+        .compose(
+            cf -> {
+              List<ParsedCounterReport> counterReports = cf.list();
+              if (counterReports.isEmpty()) {
+                return Future.failedFuture(new FileUploadException("No months to process."));
+              } else if (counterReports.contains(null)) {
+                return Future.failedFuture(
+                    new FileUploadException(
+                        "Error processing at least one month from supplied report."));
+              } else {
+                return Future.succeededFuture(counterReports);
+              }
+            });
+  }
 
-    List<CounterReport> counterReports;
-    if (release.equals("5")) {
-      counterReports = getCOP5Reports(content);
-    } else {
-      counterReports = getCOP4Reports(content);
+  /**
+   * Reads, parses and splits a report.
+   *
+   * @return one supplier per month, converting the month to a {@link ParsedCounterReport} or
+   *     returning null if the month can't be determined
+   */
+  private static List<Supplier<ParsedCounterReport>> splitMonths(Callable<String> contentSupplier) {
+    try {
+      String content = contentSupplier.call();
+      switch (detectFormat(content)) {
+        case COUNTER4_XML:
+          return getCOP4Reports(fromCOP4Xml(content));
+        case COUNTER4_CSV:
+          return getCOP4Reports(fromCOP4Csv(content));
+        case COUNTER5_JSON:
+          return getCOP5Reports(fromCOP5Json(content));
+        case COUNTER5_CSV:
+          return getCOP5Reports(fromCOP5Csv(content));
+        default:
+          throw new FileUploadException(MSG_WRONG_FORMAT);
+      }
+    } catch (Exception e) {
+      throw new UploadHelperRuntimeException(e);
     }
+  }
 
-    if (counterReports.isEmpty()) {
-      throw new FileUploadException("No months to process.");
-    } else if (counterReports.contains(null)) {
-      throw new FileUploadException("Error processing at least one month from supplied report.");
-    } else {
-      return counterReports;
+  /**
+   * Determines the format of a report by looking at the beginning of its content only.
+   *
+   * <p>XML content is treated as COUNTER 4 report, JSON content as COUNTER 5 report. For CSV
+   * content the first cell of the header decides: COUNTER 5 CSV reports start with {@code
+   * Report_Name}, COUNTER 4 CSV reports start with the report title.
+   *
+   * @param content report content
+   * @return detected {@link ReportFormat}
+   */
+  static ReportFormat detectFormat(String content) {
+    int length = Math.min(content.length(), SNIFF_LENGTH);
+    int i = 0;
+    while (i < length
+        && (content.charAt(i) == '\uFEFF' || Character.isWhitespace(content.charAt(i)))) {
+      i++;
     }
+    if (i == length) {
+      return ReportFormat.UNKNOWN;
+    }
+
+    char first = content.charAt(i);
+    if (first == '<') {
+      return ReportFormat.COUNTER4_XML;
+    } else if (first == '{') {
+      return ReportFormat.COUNTER5_JSON;
+    }
+
+    int lineEnd = i;
+    while (lineEnd < length
+        && content.charAt(lineEnd) != '\n'
+        && content.charAt(lineEnd) != '\r') {
+      lineEnd++;
+    }
+    String firstCell = content.substring(i, lineEnd).split(",", 2)[0].replace("\"", "").trim();
+    return CSV_HEADER_COP5.equals(firstCell)
+        ? ReportFormat.COUNTER5_CSV
+        : ReportFormat.COUNTER4_CSV;
   }
 
-  private static List<CounterReport> getCOP4Reports(String content)
-      throws ReportSplitException, FileUploadException {
-    List<CounterReport> result;
-    Report report = Counter4Utils.fromString(content);
-    if (report == null) {
-      try {
-        report = Counter4Utils.fromCsvString(content);
-      } catch (IOException | MapperException e) {
-        throw new FileUploadException(MSG_WRONG_FORMAT + ": " + e.getMessage(), e);
-      }
+  private static Report fromCOP4Xml(String content) throws FileUploadException {
+    return Optional.ofNullable(Counter4Utils.fromString(content))
+        .orElseThrow(() -> new FileUploadException(MSG_WRONG_FORMAT));
+  }
+
+  private static Report fromCOP4Csv(String content) throws FileUploadException {
+    try {
+      return Optional.ofNullable(Counter4Utils.fromCsvString(content))
+          .orElseThrow(() -> new FileUploadException(MSG_WRONG_FORMAT));
+    } catch (IOException | MapperException e) {
+      throw new FileUploadException(MSG_WRONG_FORMAT + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static Object fromCOP5Json(String content) throws FileUploadException {
+    try {
+      return Optional.ofNullable(Counter5Utils.fromJSON(content))
+          .orElseThrow(() -> new FileUploadException(MSG_WRONG_FORMAT));
+    } catch (Counter5UtilsException e) {
+      throw new FileUploadException(MSG_WRONG_FORMAT + ": " + e.getMessage(), e);
     }
+  }
 
+  private static Object fromCOP5Csv(String content) throws FileUploadException {
+    try {
+      return Optional.ofNullable(Counter5Utils.fromCSV(content))
+          .orElseThrow(() -> new FileUploadException(MSG_WRONG_FORMAT));
+    } catch (org.olf.erm.usage.counter50.csv.mapper.MapperException e) {
+      throw new FileUploadException(MSG_WRONG_FORMAT + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static List<Supplier<ParsedCounterReport>> getCOP4Reports(Report report)
+      throws ReportSplitException, FileUploadException {
     List<YearMonth> yearMonthsFromReport = Counter4Utils.getYearMonthsFromReport(report);
 
     List<Report> reports = Collections.singletonList(report);
@@ -64,105 +175,73 @@ public class UploadHelper {
       reports = Counter4Utils.split(report);
     }
 
-    Report finalReport = report;
     String reportName =
-        Optional.ofNullable(Counter4Utils.getNameForReportTitle(finalReport.getName()))
+        Optional.ofNullable(Counter4Utils.getNameForReportTitle(report.getName()))
             .orElseThrow(() -> new FileUploadException("Unsupported report"));
 
-    result =
-        reports.stream()
-            .map(
-                r -> {
+    return reports.stream()
+        .<Supplier<ParsedCounterReport>>map(
+            r ->
+                () -> {
                   List<YearMonth> months = Counter4Utils.getYearMonthsFromReport(r);
 
                   if (!months.isEmpty()) {
-                    return new CounterReport()
-                        .withRelease(finalReport.getVersion())
-                        .withReportName(reportName)
-                        .withReport(
-                            Json.decodeValue(
-                                Counter4Utils.toJSON(r), org.folio.rest.jaxrs.model.Report.class))
-                        .withYearMonth(months.get(0).toString());
+                    CounterReport counterReport =
+                        new CounterReport()
+                            .withRelease(report.getVersion())
+                            .withReportName(reportName)
+                            .withReport(ReportConverter.fromCOP4Report(r))
+                            .withYearMonth(months.get(0).toString());
+                    return new ParsedCounterReport(
+                        counterReport, ReportFragments.create(r, counterReport.getRelease()));
                   } else {
                     return null;
                   }
                 })
-            .collect(Collectors.toList());
-    return result;
+        .collect(Collectors.toList());
   }
 
-  private static List<CounterReport> getCOP5Reports(String content)
+  private static List<Supplier<ParsedCounterReport>> getCOP5Reports(Object cop5Report)
       throws FileUploadException, Counter5UtilsException {
-    // Counter 5
-    Object cop5Report = createCOP5Report(content);
     SUSHIReportHeader header = Counter5Utils.getSushiReportHeaderFromReportObject(cop5Report);
+    if (!"5".equals(header.getRelease())) {
+      throw new FileUploadException(
+          String.format("Unsupported report release '%s'", header.getRelease()));
+    }
+
     List<YearMonth> yearMonthsFromReportCOP5 = Counter5Utils.getYearMonthsFromReportHeader(header);
     List<Object> reports = Collections.singletonList(cop5Report);
     if (yearMonthsFromReportCOP5.size() != 1) {
       reports = Counter5Utils.split(cop5Report);
     }
 
-    Gson gson = new Gson();
     return reports.stream()
-        .map(
-            r -> {
-              List<YearMonth> ym = Counter5Utils.getYearMonthFromReport(r);
-              if (!ym.isEmpty()) {
-                return new CounterReport()
-                    .withRelease("5")
-                    .withReportName(header.getReportID())
-                    .withReport(
-                        Json.decodeValue(gson.toJson(r), org.folio.rest.jaxrs.model.Report.class))
-                    .withYearMonth(ym.get(0).toString());
-              } else {
-                return null;
-              }
-            })
+        .<Supplier<ParsedCounterReport>>map(
+            r ->
+                () -> {
+                  List<YearMonth> ym = Counter5Utils.getYearMonthFromReport(r);
+                  if (!ym.isEmpty()) {
+                    CounterReport counterReport =
+                        new CounterReport()
+                            .withRelease("5")
+                            .withReportName(header.getReportID())
+                            .withReport(ReportConverter.fromCOP5Report(r))
+                            .withYearMonth(ym.get(0).toString());
+                    return new ParsedCounterReport(
+                        counterReport, ReportFragments.create(r, counterReport.getRelease()));
+                  } else {
+                    return null;
+                  }
+                })
         .collect(Collectors.toList());
   }
 
-  private static Object createCOP5Report(String content) throws FileUploadException {
-    Object cop5Report = null;
-    try {
-      cop5Report = Counter5Utils.fromJSON(content);
-    } catch (Exception e) {
-      // bad practice, i know...
-    }
-    if (cop5Report == null) {
-      try {
-        cop5Report = Counter5Utils.fromCSV(content);
-      } catch (org.olf.erm.usage.counter50.csv.mapper.MapperException e) {
-        throw new FileUploadException(MSG_WRONG_FORMAT + ": " + e.getMessage(), e);
-      }
-    }
-    return cop5Report;
-  }
-
-  private static String getCounterRelease(String content) {
-    String release = "4";
-    try {
-      Object r = Counter5Utils.fromCSV(content);
-      SUSHIReportHeader header = Counter5Utils.getSushiReportHeaderFromReportObject(r);
-      return header.getRelease();
-    } catch (org.olf.erm.usage.counter50.csv.mapper.MapperException | Counter5UtilsException e) {
-      // bad practice, but we need to check counter version...
-    }
-
-    try {
-      Object o = Counter5Utils.fromJSON(content);
-      if (o instanceof COUNTERDatabaseReport) {
-        return ((COUNTERDatabaseReport) o).getReportHeader().getRelease();
-      } else if (o instanceof COUNTERItemReport) {
-        return ((COUNTERItemReport) o).getReportHeader().getRelease();
-      } else if (o instanceof COUNTERPlatformReport) {
-        return ((COUNTERPlatformReport) o).getReportHeader().getRelease();
-      } else if (o instanceof COUNTERTitleReport) {
-        return ((COUNTERTitleReport) o).getReportHeader().getRelease();
-      }
-    } catch (Counter5UtilsException e) {
-      // I know...
-    }
-    return release;
+  enum ReportFormat {
+    COUNTER4_XML,
+    COUNTER4_CSV,
+    COUNTER5_JSON,
+    COUNTER5_CSV,
+    UNKNOWN
   }
 
   public static class FileUploadException extends Exception {
@@ -182,6 +261,13 @@ public class UploadHelper {
     }
   }
 
+  private static class UploadHelperRuntimeException extends RuntimeException {
+
+    public UploadHelperRuntimeException(Throwable cause) {
+      super(cause);
+    }
+  }
+
   private UploadHelper() {
   }
 }
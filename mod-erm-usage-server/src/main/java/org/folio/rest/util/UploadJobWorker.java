@@ -0,0 +1,342 @@
+package org.folio.rest.util;
+
+import static org.folio.rest.util.Constants.TABLE_NAME_FILES;
+import static org.folio.rest.util.Constants.TABLE_NAME_UPLOAD_JOBS;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.okapi.common.XOkapiHeaders;
+import org.folio.rest.jaxrs.model.UploadJob;
+import org.folio.rest.jaxrs.model.UploadJob.Status;
+import org.folio.rest.persist.PgUtil;
+import org.folio.rest.tools.utils.TenantTool;
+
+/**
+ * Processes asynchronous counter report uploads in the background.
+ *
+ * <p>The uploaded content is stored in the files table and referenced by an {@link UploadJob}.
+ * Jobs are queued in memory and at most {@link #MAX_RUNNING_JOBS} jobs are processed at the same
+ * time. As jobs are persisted, unfinished jobs are picked up again after a restart (see {@link
+ * #resumeJobs(Vertx, Context)}).
+ *
+ * <p>Several module instances may share the jobs of a tenant. Before processing a job, an
+ * instance claims it in the database and holds a lease on it, which is renewed while the job is
+ * running. A job is only claimed if it is queued or if the lease of the instance running it
+ * expired, e.g. because the instance was stopped, so each job is processed by one instance only.
+ */
+public class UploadJobWorker {
+
+  private static final Logger LOG = LogManager.getLogger(UploadJobWorker.class);
+  private static final int MAX_RUNNING_JOBS = Integer.getInteger("uploadJobs.maxRunning", 2);
+  private static final int LEASE_SECONDS = Integer.getInteger("uploadJobs.leaseSeconds", 300);
+  // identifies this module instance as owner of the jobs it claimed
+  private static final UUID OWNER = UUID.randomUUID();
+  private static final Queue<QueuedJob> QUEUE = new ConcurrentLinkedQueue<>();
+  // ids of the jobs queued or running in this instance, so a job is queued only once
+  private static final Set<String> QUEUED_JOB_IDS = ConcurrentHashMap.newKeySet();
+  private static final AtomicInteger RUNNING = new AtomicInteger();
+
+  // jobs not processed by any instance: queued ones and running ones with an expired lease
+  private static final String CLAIMABLE_CONDITION =
+      String.format(
+          "(jsonb->>'status' = '%s' OR jsonb->>'status' = '%s'"
+              + " AND (lease_until IS NULL OR lease_until < now()))",
+          Status.QUEUED.value(), Status.RUNNING.value());
+  private static final String SELECT_CLAIMABLE_JOBS_SQL =
+      "SELECT id FROM " + TABLE_NAME_UPLOAD_JOBS + " WHERE " + CLAIMABLE_CONDITION;
+  // claims a job for this instance, rows locked by a concurrent claim are skipped
+  private static final String CLAIM_JOB_SQL =
+      "UPDATE "
+          + TABLE_NAME_UPLOAD_JOBS
+          + " SET owner = $2, lease_until = now() + $3::int * interval '1 second',"
+          + String.format(
+              " jsonb = jsonb_set(jsonb, '{status}', '\"%s\"')", Status.RUNNING.value())
+          + " WHERE id = (SELECT id FROM "
+          + TABLE_NAME_UPLOAD_JOBS
+          + " WHERE id = $1 AND "
+          + CLAIMABLE_CONDITION
+          + " FOR UPDATE SKIP LOCKED) RETURNING id";
+  private static final String RENEW_LEASE_SQL =
+      "UPDATE "
+          + TABLE_NAME_UPLOAD_JOBS
+          + " SET lease_until = now() + $3::int * interval '1 second'"
+          + " WHERE id = $1 AND owner = $2";
+
+  private UploadJobWorker() {}
+
+  /**
+   * Stores base64 encoded report content, creates a new {@link UploadJob} referencing it and
+   * queues the job for processing.
+   *
+   * @param vertxContext Vertx context
+   * @param okapiHeaders okapiHeaders
+   * @param job job to create
+   * @param base64Content base64 encoded report
+   * @return the created job
+   */
+  public static Future<UploadJob> createJob(
+      Context vertxContext, Map<String, String> okapiHeaders, UploadJob job, String base64Content) {
+    byte[] content;
+    try {
+      content = Base64.getDecoder().decode(base64Content);
+    } catch (IllegalArgumentException e) {
+      return Future.failedFuture(e);
+    }
+
+    return ErmUsageFileHelper.saveFile(vertxContext, okapiHeaders, content)
+        .compose(
+            id -> {
+              String jobId = UUID.randomUUID().toString();
+              job.withId(jobId).withFileId(id).withStatus(Status.QUEUED).withMonthsParsed(0);
+              Promise<String> jobPromise = Promise.promise();
+              PgUtil.postgresClient(vertxContext, okapiHeaders)
+                  .save(TABLE_NAME_UPLOAD_JOBS, jobId, job, jobPromise);
+              return jobPromise.future();
+            })
+        .map(
+            jobId -> {
+              submit(vertxContext, TenantTool.tenantId(okapiHeaders), jobId);
+              return job;
+            });
+  }
+
+  /**
+   * Queues unfinished jobs of all tenants, e.g. after a restart of the module. Running jobs are
+   * only queued if their lease expired. The jobs are looked up again periodically, so jobs of a
+   * stopped instance are taken over once their lease expired.
+   *
+   * @param vertx Vertx
+   * @param vertxContext Vertx context
+   * @return Future that completes when the jobs are queued
+   */
+  public static Future<Void> resumeJobs(Vertx vertx, Context vertxContext) {
+    vertx.setPeriodic(LEASE_SECONDS * 1000L, id -> queueClaimableJobs(vertx, vertxContext));
+    return queueClaimableJobs(vertx, vertxContext);
+  }
+
+  private static Future<Void> queueClaimableJobs(Vertx vertx, Context vertxContext) {
+    return PgHelper.getTenantIds(vertx, TABLE_NAME_UPLOAD_JOBS)
+        .onSuccess(tenantIds -> tenantIds.forEach(tenantId -> resumeJobs(vertxContext, tenantId)))
+        .onFailure(t -> LOG.warn("Unable to resume upload jobs: {}", t.getMessage()))
+        .<Void>mapEmpty()
+        .otherwiseEmpty();
+  }
+
+  private static void resumeJobs(Context vertxContext, String tenantId) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, createHeaders(tenantId))
+        .select(SELECT_CLAIMABLE_JOBS_SQL, result);
+    result
+        .future()
+        .onSuccess(
+            rows -> rows.forEach(row -> submit(vertxContext, tenantId, row.getValue(0).toString())))
+        .onFailure(
+            t ->
+                LOG.warn(
+                    "Unable to resume upload jobs of tenant {}: {}", tenantId, t.getMessage()));
+  }
+
+  private static void submit(Context vertxContext, String tenantId, String jobId) {
+    if (!QUEUED_JOB_IDS.add(jobId)) {
+      return;
+    }
+    QUEUE.add(new QueuedJob(tenantId, jobId));
+    processQueue(vertxContext);
+  }
+
+  private static void processQueue(Context vertxContext) {
+    while (!QUEUE.isEmpty()) {
+      int running = RUNNING.get();
+      if (running >= MAX_RUNNING_JOBS) {
+        return;
+      }
+      if (RUNNING.compareAndSet(running, running + 1)) {
+        QueuedJob queuedJob = QUEUE.poll();
+        if (queuedJob == null) {
+          RUNNING.decrementAndGet();
+          return;
+        }
+        process(vertxContext, queuedJob)
+            .onComplete(
+                ar -> {
+                  QUEUED_JOB_IDS.remove(queuedJob.jobId);
+                  RUNNING.decrementAndGet();
+                  processQueue(vertxContext);
+                });
+      }
+    }
+  }
+
+  private static Future<Void> process(Context vertxContext, QueuedJob queuedJob) {
+    Map<String, String> okapiHeaders = createHeaders(queuedJob.tenantId);
+    return claim(vertxContext, okapiHeaders, queuedJob.jobId)
+        .compose(
+            claimed -> {
+              if (Boolean.FALSE.equals(claimed)) {
+                // finished, deleted or processed by another instance
+                return Future.succeededFuture();
+              }
+              long timerId =
+                  vertxContext
+                      .owner()
+                      .setPeriodic(
+                          LEASE_SECONDS * 1000L / 3,
+                          id -> renewLease(vertxContext, okapiHeaders, queuedJob.jobId));
+              return getById(
+                      vertxContext,
+                      okapiHeaders,
+                      TABLE_NAME_UPLOAD_JOBS,
+                      queuedJob.jobId,
+                      UploadJob.class)
+                  .compose(
+                      job ->
+                          job == null
+                              ? Future.<Void>succeededFuture()
+                              : process(vertxContext, okapiHeaders, job))
+                  .onComplete(ar -> vertxContext.owner().cancelTimer(timerId));
+            })
+        .onFailure(
+            t ->
+                LOG.error(
+                    "Error processing upload job {} of tenant {}: {}",
+                    queuedJob.jobId,
+                    queuedJob.tenantId,
+                    t.getMessage()));
+  }
+
+  private static Future<Void> process(
+      Context vertxContext, Map<String, String> okapiHeaders, UploadJob job) {
+    return ErmUsageFileHelper.getFileContent(vertxContext, okapiHeaders, job.getFileId())
+        .compose(
+            content -> {
+              if (content == null) {
+                return Future.failedFuture("Uploaded file not found");
+              }
+              return UploadHelper.getCounterReports(
+                  vertxContext, () -> new String(content, StandardCharsets.UTF_8));
+            })
+        .compose(
+            counterReports ->
+                update(vertxContext, okapiHeaders, job.withMonthsParsed(counterReports.size()))
+                    .map(counterReports))
+        .compose(
+            counterReports ->
+                PgHelper.saveUploadedCounterReports(
+                    vertxContext,
+                    okapiHeaders,
+                    job.getProviderId(),
+                    counterReports,
+                    Boolean.TRUE.equals(job.getOverwrite()),
+                    job.getReportEditedManually(),
+                    job.getEditReason()))
+        .map(
+            savedReports ->
+                job.withReportIds(savedReports.getIds())
+                    .withMonthsSaved(savedReports.getIds().size())
+                    .withMonthsUnchanged(savedReports.getUnchangedCount())
+                    .withStatus(Status.FINISHED))
+        .otherwise(
+            t -> {
+              job.getFailures().add(t.getMessage());
+              return job.withStatus(Status.FAILED);
+            })
+        .compose(
+            finishedJob ->
+                deleteFile(vertxContext, okapiHeaders, finishedJob.getFileId())
+                    .compose(
+                        v -> update(vertxContext, okapiHeaders, finishedJob.withFileId(null))));
+  }
+
+  /**
+   * Claims a job for this instance, see {@link #CLAIM_JOB_SQL}.
+   *
+   * @return true if the job was claimed, false if it isn't claimable
+   */
+  private static Future<Boolean> claim(
+      Context vertxContext, Map<String, String> okapiHeaders, String jobId) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .execute(CLAIM_JOB_SQL, Tuple.of(UUID.fromString(jobId), OWNER, LEASE_SECONDS), result);
+    return result.future().map(rows -> rows.rowCount() == 1);
+  }
+
+  private static void renewLease(
+      Context vertxContext, Map<String, String> okapiHeaders, String jobId) {
+    Promise<RowSet<Row>> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .execute(RENEW_LEASE_SQL, Tuple.of(UUID.fromString(jobId), OWNER, LEASE_SECONDS), result);
+    result
+        .future()
+        .onFailure(
+            t -> LOG.warn("Unable to renew lease of upload job {}: {}", jobId, t.getMessage()));
+  }
+
+  private static Map<String, String> createHeaders(String tenantId) {
+    return Map.of(XOkapiHeaders.TENANT.toLowerCase(), tenantId);
+  }
+
+  private static <T> Future<T> getById(
+      Context vertxContext,
+      Map<String, String> okapiHeaders,
+      String table,
+      String id,
+      Class<T> clazz) {
+    Promise<T> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders).getById(table, id, clazz, result);
+    return result.future();
+  }
+
+  private static Future<Void> update(
+      Context vertxContext, Map<String, String> okapiHeaders, UploadJob job) {
+    Promise<Void> result = Promise.promise();
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .update(TABLE_NAME_UPLOAD_JOBS, job, job.getId(), ar -> result.handle(ar.mapEmpty()));
+    return result.future();
+  }
+
+  private static Future<Void> deleteFile(
+      Context vertxContext, Map<String, String> okapiHeaders, String fileId) {
+    Promise<Void> result = Promise.promise();
+    if (fileId == null) {
+      return Future.succeededFuture();
+    }
+    PgUtil.postgresClient(vertxContext, okapiHeaders)
+        .delete(
+            TABLE_NAME_FILES,
+            fileId,
+            ar -> {
+              if (ar.failed()) {
+                LOG.warn("Failed deleting uploaded file {}: {}", fileId, ar.cause().getMessage());
+              }
+              result.complete();
+            });
+    return result.future();
+  }
+
+  private static class QueuedJob {
+
+    private final String tenantId;
+    private final String jobId;
+
+    QueuedJob(String tenantId, String jobId) {
+      this.tenantId = tenantId;
+      this.jobId = jobId;
+    }
+  }
+}
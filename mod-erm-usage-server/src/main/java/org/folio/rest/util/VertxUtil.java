@@ -1,17 +1,135 @@
 package org.folio.rest.util;
 
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.impl.VertxInternal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public class VertxUtil {
 
+  private static final Logger LOG = LogManager.getLogger(VertxUtil.class);
+  private static final Map<Vertx, Map<WorkerPool, WorkerExecutor>> EXECUTORS =
+      new ConcurrentHashMap<>();
+
   private VertxUtil() {}
 
+  /**
+   * Worker pools for CPU-heavy report work, so that e.g. a slow export does not delay uploads or
+   * RMB's own blocking work.
+   *
+   * <p>Size and max execute time (in seconds) of a pool can be configured with the system
+   * properties {@code workerPool.<name>.size} and {@code workerPool.<name>.maxExecuteTime}.
+   */
+  public enum WorkerPool {
+    UPLOAD("upload"),
+    EXPORT("export"),
+    DOWNLOAD("download");
+
+    private final String name;
+    private final int size;
+    private final long maxExecuteTime;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    WorkerPool(String name) {
+      this.name = name;
+      this.size =
+          Integer.getInteger(
+              "workerPool." + name + ".size",
+              Math.max(2, Runtime.getRuntime().availableProcessors()));
+      this.maxExecuteTime = Long.getLong("workerPool." + name + ".maxExecuteTime", 60);
+    }
+
+    public String getName() {
+      return "mod-erm-usage-" + name;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * Returns the number of tasks submitted to this pool that have not started yet.
+     *
+     * @return number of waiting tasks
+     */
+    public int getQueueDepth() {
+      return queueDepth.get();
+    }
+
+    private WorkerExecutor getExecutor(Vertx vertx) {
+      return EXECUTORS
+          .computeIfAbsent(vertx, VertxUtil::createExecutors)
+          .computeIfAbsent(
+              this,
+              p ->
+                  vertx.createSharedWorkerExecutor(
+                      getName(), size, maxExecuteTime, TimeUnit.SECONDS));
+    }
+  }
+
+  /**
+   * Creates the map holding the executors of a Vertx instance. The executors are closed and the
+   * map is removed when the Vertx instance is closed.
+   */
+  private static Map<WorkerPool, WorkerExecutor> createExecutors(Vertx vertx) {
+    Map<WorkerPool, WorkerExecutor> executors = new ConcurrentHashMap<>();
+    ((VertxInternal) vertx)
+        .addCloseHook(
+            completion -> {
+              EXECUTORS.remove(vertx);
+              List<Future<Void>> closed =
+                  executors.values().stream()
+                      .map(WorkerExecutor::close)
+                      .collect(Collectors.toList());
+              CompositeFuture.join(new ArrayList<>(closed)).<Void>mapEmpty().onComplete(completion);
+            });
+    return executors;
+  }
+
   public static <T> Future<T> executeBlocking(Context vertxContext, Supplier<T> supplier) {
     Promise<T> result = Promise.promise();
-    vertxContext.executeBlocking(promise -> promise.complete(supplier.get()), result);
+    vertxContext.executeBlocking(promise -> promise.complete(supplier.get()), false, result);
+    return result.future();
+  }
+
+  /**
+   * Executes blocking code on the given {@link WorkerPool}. Tasks are executed unordered, so they
+   * don't wait for other tasks of the same context to finish. If more tasks are waiting than the
+   * pool has threads, the queue depth is logged.
+   *
+   * @param vertxContext Vertx context
+   * @param pool worker pool to use
+   * @param supplier blocking code
+   * @return Future with the result of the supplier
+   */
+  public static <T> Future<T> executeBlocking(
+      Context vertxContext, WorkerPool pool, Supplier<T> supplier) {
+    Promise<T> result = Promise.promise();
+    int queueDepth = pool.queueDepth.incrementAndGet();
+    if (queueDepth > pool.size) {
+      LOG.debug("{} tasks waiting for worker pool {}", queueDepth, pool.getName());
+    }
+    pool.getExecutor(vertxContext.owner())
+        .<T>executeBlocking(
+            promise -> {
+              pool.queueDepth.decrementAndGet();
+              promise.complete(supplier.get());
+            },
+            false,
+            ar -> vertxContext.runOnContext(v -> result.handle(ar)));
     return result.future();
   }
 }
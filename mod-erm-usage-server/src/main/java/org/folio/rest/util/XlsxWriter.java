@@ -0,0 +1,103 @@
+package org.folio.rest.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.regex.Pattern;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes xlsx spreadsheets row by row. Only a window of {@value #ROW_WINDOW} rows is kept in
+ * memory, older rows are flushed to a compressed temporary file, so the memory needed doesn't
+ * depend on the number of rows.
+ *
+ * <p>Integer values in the metric columns of a COUNTER report are written as numeric cells, all
+ * other values as text cells, so that identifiers like ISBNs are kept as they are. The metric
+ * columns are those from the "Reporting Period Total" column of the table header on, values of
+ * rows before the table header are always text.
+ */
+public class XlsxWriter {
+
+  private static final int ROW_WINDOW = 100;
+  private static final Pattern INTEGER_PATTERN = Pattern.compile("-?(0|[1-9]\\d{0,14})");
+  // header of the first metric column, e.g. "Reporting Period Total" (R4) or
+  // "Reporting_Period_Total" (R5)
+  private static final Pattern TOTAL_COLUMN_PATTERN =
+      Pattern.compile("Reporting[ _]Period[ _]Total", Pattern.CASE_INSENSITIVE);
+  private static final CsvMapper CSV_MAPPER =
+      new CsvMapper().enable(CsvParser.Feature.WRAP_AS_ARRAY);
+
+  private XlsxWriter() {}
+
+  /**
+   * Writes the rows to a spreadsheet with a single sheet.
+   *
+   * @param rows rows of the sheet, each row given as array of cell values
+   * @param out stream the spreadsheet is written to
+   * @throws IOException if writing fails
+   */
+  public static void write(Iterator<String[]> rows, OutputStream out) throws IOException {
+    SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW);
+    wb.setCompressTempFiles(true);
+    try {
+      Sheet sheet = wb.createSheet();
+      int rowNum = 0;
+      // -1 until the table header is found
+      int firstMetricColumn = -1;
+      while (rows.hasNext()) {
+        String[] values = rows.next();
+        Row row = sheet.createRow(rowNum++);
+        for (int i = 0; i < values.length; i++) {
+          Cell cell = row.createCell(i);
+          String value = values[i];
+          if (firstMetricColumn >= 0
+              && i >= firstMetricColumn
+              && value != null
+              && INTEGER_PATTERN.matcher(value).matches()) {
+            cell.setCellValue(Long.parseLong(value));
+          } else {
+            cell.setCellValue(value);
+          }
+        }
+        if (firstMetricColumn < 0) {
+          firstMetricColumn = findTotalColumn(values);
+        }
+      }
+      wb.write(out);
+    } finally {
+      wb.dispose();
+      wb.close();
+    }
+  }
+
+  private static int findTotalColumn(String[] values) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null && TOTAL_COLUMN_PATTERN.matcher(values[i].trim()).matches()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Converts CSV to a spreadsheet. The CSV is parsed row by row while writing the spreadsheet.
+   *
+   * @param csv CSV content
+   * @return content of the xlsx file
+   * @throws IOException if parsing or writing fails
+   */
+  public static byte[] fromCSV(String csv) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (MappingIterator<String[]> rows = CSV_MAPPER.readerFor(String[].class).readValues(csv)) {
+      write(rows, out);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,149 @@
+-- the report payload of a counter report is stored separately, so that queries on the metadata
+-- of counter reports don't need to read (and decompress) the report
+CREATE TABLE IF NOT EXISTS counter_report_data (
+  id UUID PRIMARY KEY REFERENCES counter_reports (id) ON DELETE CASCADE
+    DEFERRABLE INITIALLY DEFERRED,
+  report jsonb,
+  report_hash TEXT
+);
+
+-- returns the SHA-256 hash of a report, used to skip saving unchanged reports
+CREATE OR REPLACE FUNCTION counter_report_hash(report jsonb) RETURNS TEXT AS $$
+  SELECT encode(sha256(convert_to(report::TEXT, 'UTF8')), 'hex');
+$$ LANGUAGE sql IMMUTABLE;
+
+-- moves the report of an inserted counter report to counter_report_data and stores its metrics
+-- in counter_report_metrics (see counter_report_metrics.sql)
+CREATE OR REPLACE FUNCTION store_counter_report_data_on_insert() RETURNS TRIGGER AS $$
+BEGIN
+  -- if the id exists already, this is an INSERT ... ON CONFLICT DO UPDATE and the report is
+  -- handled by the update trigger
+  IF NEW.jsonb ? 'report' AND NOT EXISTS (SELECT 1 FROM counter_reports WHERE id = NEW.id) THEN
+    INSERT INTO counter_report_data (id, report, report_hash)
+      VALUES (NEW.id, NEW.jsonb->'report', counter_report_hash(NEW.jsonb->'report'))
+      ON CONFLICT (id) DO UPDATE SET report = EXCLUDED.report, report_hash = EXCLUDED.report_hash;
+    PERFORM store_counter_report_metrics(NEW.id, NEW.jsonb);
+    NEW.jsonb := NEW.jsonb - 'report';
+  END IF;
+  RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- moves the report of an updated counter report to counter_report_data and replaces its
+-- metrics, removes the stored report and metrics if the updated counter report has none.
+-- An unchanged report of the same provider, report and month is left as stored, only the other
+-- fields of the counter report are updated. A changed or removed report changes the change_id in
+-- provider_report_stats, see provider_report_stats.sql.
+CREATE OR REPLACE FUNCTION store_counter_report_data_on_update() RETURNS TRIGGER AS $$
+DECLARE reportHash TEXT;
+BEGIN
+  IF NEW.jsonb ? 'report' THEN
+    reportHash := counter_report_hash(NEW.jsonb->'report');
+    IF reportHash IS DISTINCT FROM (SELECT report_hash FROM counter_report_data WHERE id = NEW.id)
+      OR (NEW.jsonb->>'providerId', NEW.jsonb->>'reportName', NEW.jsonb->>'release',
+        NEW.jsonb->>'yearMonth') IS DISTINCT FROM (OLD.jsonb->>'providerId',
+        OLD.jsonb->>'reportName', OLD.jsonb->>'release', OLD.jsonb->>'yearMonth') THEN
+      INSERT INTO counter_report_data (id, report, report_hash)
+        VALUES (NEW.id, NEW.jsonb->'report', reportHash)
+        ON CONFLICT (id) DO UPDATE
+        SET report = EXCLUDED.report, report_hash = EXCLUDED.report_hash;
+      PERFORM store_counter_report_metrics(NEW.id, NEW.jsonb);
+      PERFORM change_report_stats_change_id(NEW.jsonb);
+    END IF;
+    NEW.jsonb := NEW.jsonb - 'report';
+  ELSE
+    DELETE FROM counter_report_data WHERE id = NEW.id;
+    IF FOUND THEN
+      PERFORM change_report_stats_change_id(NEW.jsonb);
+    END IF;
+    DELETE FROM counter_report_metrics WHERE report_id = NEW.id;
+  END IF;
+  RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS store_counter_report_data_on_insert ON counter_reports;
+CREATE TRIGGER store_counter_report_data_on_insert
+BEFORE INSERT ON counter_reports
+FOR EACH ROW EXECUTE PROCEDURE store_counter_report_data_on_insert();
+
+DROP TRIGGER IF EXISTS store_counter_report_data_on_update ON counter_reports;
+CREATE TRIGGER store_counter_report_data_on_update
+BEFORE UPDATE ON counter_reports
+FOR EACH ROW EXECUTE PROCEDURE store_counter_report_data_on_update();
+
+-- counter reports including their report, used for CQL queries on the report
+CREATE OR REPLACE VIEW counter_reports_with_data AS
+  SELECT
+    r.id,
+    CASE WHEN d.id IS NULL THEN r.jsonb
+      ELSE r.jsonb || jsonb_build_object('report', d.report) END AS jsonb,
+    r.creation_date,
+    r.created_by
+  FROM counter_reports r
+  LEFT JOIN counter_report_data d ON d.id = r.id;
+
+-- returns the compression method configured for stored reports
+CREATE OR REPLACE FUNCTION counter_report_data_compression() RETURNS TEXT AS $$
+DECLARE method TEXT;
+BEGIN
+  IF current_setting('server_version_num')::INTEGER < 140000 THEN
+    RETURN 'pglz';
+  END IF;
+  -- attcompression only exists in PostgreSQL 14 or later
+  EXECUTE
+    'SELECT attcompression::TEXT FROM pg_attribute ' ||
+    'WHERE attrelid = ''counter_report_data''::regclass AND attname = ''report'''
+    INTO method;
+  RETURN CASE method WHEN 'l' THEN 'lz4' WHEN 'p' THEN 'pglz'
+    ELSE current_setting('default_toast_compression') END;
+END;
+$$ LANGUAGE plpgsql;
+
+-- sets the compression method of stored reports, e.g. 'lz4' or 'pglz', returns the method in use
+-- (column compression methods require PostgreSQL 14, lz4 requires a server built with lz4).
+-- The table is only altered if the method differs from the one in use.
+CREATE OR REPLACE FUNCTION set_counter_report_data_compression(method TEXT) RETURNS TEXT AS $$
+BEGIN
+  IF current_setting('server_version_num')::INTEGER < 140000 THEN
+    RETURN 'pglz';
+  END IF;
+  IF counter_report_data_compression() = method THEN
+    RETURN method;
+  END IF;
+  BEGIN
+    EXECUTE format('ALTER TABLE counter_report_data ALTER COLUMN report SET COMPRESSION %I',
+      method);
+  EXCEPTION WHEN feature_not_supported OR invalid_parameter_value THEN
+    RAISE NOTICE 'compression method % not supported', method;
+  END;
+  RETURN counter_report_data_compression();
+END;
+$$ LANGUAGE plpgsql;
+
+-- recompresses the next batch_size stored reports with an id greater than after_id, if they are
+-- not compressed with the configured compression method. Returns the id of the last report of
+-- the batch, NULL if there are no more reports, and the number of recompressed reports.
+CREATE OR REPLACE FUNCTION recompress_counter_report_data(after_id UUID, batch_size INTEGER,
+  OUT last_id UUID, OUT recompressed INTEGER) AS $$
+BEGIN
+  recompressed := 0;
+  IF current_setting('server_version_num')::INTEGER < 140000 THEN
+    RETURN;
+  END IF;
+  SELECT id INTO last_id FROM (
+    SELECT id FROM counter_report_data WHERE id > after_id ORDER BY id LIMIT batch_size) batch
+    ORDER BY id DESC LIMIT 1;
+  IF last_id IS NULL THEN
+    RETURN;
+  END IF;
+  -- an unchanged toasted value is stored as is, so the report is rebuilt from its text
+  EXECUTE
+    'UPDATE counter_report_data SET report = (report::TEXT)::jsonb ' ||
+    'WHERE id > $1 AND id <= $2 AND pg_column_compression(report) <> $3'
+    USING after_id, last_id, counter_report_data_compression();
+  GET DIAGNOSTICS recompressed = ROW_COUNT;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT set_counter_report_data_compression('lz4');
@@ -0,0 +1,10 @@
+-- export fragments of counter reports, the CSV export of the report's month, created when the
+-- report is saved and merged for exports of multiple months (see ReportFragments)
+--   report_hash: hash of the report the fragment was created from, the fragment is only valid
+--                while it equals counter_report_data.report_hash
+CREATE TABLE IF NOT EXISTS counter_report_fragments (
+  id UUID PRIMARY KEY REFERENCES counter_reports (id) ON DELETE CASCADE
+    DEFERRABLE INITIALLY DEFERRED,
+  report_hash TEXT NOT NULL,
+  fragment TEXT NOT NULL
+);
@@ -0,0 +1,109 @@
+-- usage metrics of the counter reports, one row per report item and metric type, maintained by
+-- the triggers in counter_report_data.sql in the same transaction the reports are saved
+--   item_index:        position of the item in the report
+--   item_identifiers:  identifiers of the item as array of {"type": ..., "value": ...}
+--   count:             sum of the counts of the metric type over the periods of the item
+CREATE TABLE IF NOT EXISTS counter_report_metrics (
+  report_id UUID NOT NULL REFERENCES counter_reports (id) ON DELETE CASCADE
+    DEFERRABLE INITIALLY DEFERRED,
+  item_index INTEGER NOT NULL,
+  metric_type TEXT NOT NULL,
+  provider_id TEXT,
+  report_name TEXT,
+  release TEXT,
+  year_month TEXT,
+  item_name TEXT,
+  item_platform TEXT,
+  item_identifiers jsonb,
+  count BIGINT NOT NULL,
+  PRIMARY KEY (report_id, item_index, metric_type)
+);
+
+CREATE INDEX IF NOT EXISTS counter_report_metrics_provider_idx
+  ON counter_report_metrics (provider_id, report_name, release, year_month);
+
+-- returns the elements of a json array, no elements if it isn't an array
+CREATE OR REPLACE FUNCTION jsonb_array_elements_or_empty(a jsonb) RETURNS SETOF jsonb AS $$
+  SELECT jsonb_array_elements(CASE WHEN jsonb_typeof(a) = 'array' THEN a ELSE '[]'::jsonb END);
+$$ LANGUAGE sql IMMUTABLE;
+
+-- returns the metrics of the items of a COUNTER 4 report
+CREATE OR REPLACE FUNCTION counter4_report_items(report jsonb)
+RETURNS TABLE (item_index BIGINT, item_name TEXT, item_platform TEXT, item_identifiers jsonb,
+  metric_type TEXT, count BIGINT) AS $$
+  WITH item AS (
+    SELECT row_number() OVER () AS idx, value
+    FROM jsonb_array_elements_or_empty(report->'customer') AS customer,
+      jsonb_array_elements_or_empty(customer->'reportItems') AS value
+  ),
+  metric AS (
+    SELECT idx, instance->>'metricType' AS metric_type, SUM((instance->>'count')::BIGINT) AS count
+    FROM item,
+      jsonb_array_elements_or_empty(value->'itemPerformance') AS performance,
+      jsonb_array_elements_or_empty(performance->'instance') AS instance
+    GROUP BY 1, 2
+  )
+  SELECT
+    idx,
+    value->>'itemName',
+    value->>'itemPlatform',
+    (SELECT jsonb_agg(jsonb_build_object('type', i->>'type', 'value', i->>'value'))
+      FROM jsonb_array_elements_or_empty(value->'itemIdentifier') AS i),
+    metric_type,
+    count
+  FROM metric JOIN item USING (idx);
+$$ LANGUAGE sql IMMUTABLE;
+
+-- returns the metrics of the items of a COUNTER 5 report, the item name is the title (TR), item
+-- (IR), database (DR) or platform (PR)
+CREATE OR REPLACE FUNCTION counter5_report_items(report jsonb)
+RETURNS TABLE (item_index BIGINT, item_name TEXT, item_platform TEXT, item_identifiers jsonb,
+  metric_type TEXT, count BIGINT) AS $$
+  WITH item AS (
+    SELECT idx, value
+    FROM jsonb_array_elements_or_empty(report->'Report_Items') WITH ORDINALITY AS i (value, idx)
+  ),
+  metric AS (
+    SELECT idx, instance->>'Metric_Type' AS metric_type, SUM((instance->>'Count')::BIGINT) AS count
+    FROM item,
+      jsonb_array_elements_or_empty(value->'Performance') AS performance,
+      jsonb_array_elements_or_empty(performance->'Instance') AS instance
+    GROUP BY 1, 2
+  )
+  SELECT
+    idx,
+    COALESCE(value->>'Title', value->>'Item', value->>'Database', value->>'Platform'),
+    value->>'Platform',
+    (SELECT jsonb_agg(jsonb_build_object('type', i->>'Type', 'value', i->>'Value'))
+      FROM jsonb_array_elements_or_empty(value->'Item_ID') AS i),
+    metric_type,
+    count
+  FROM metric JOIN item USING (idx);
+$$ LANGUAGE sql IMMUTABLE;
+
+-- replaces the metrics of a counter report, counterReport is the counter report including its
+-- report, the metrics are removed if it has no report
+CREATE OR REPLACE FUNCTION store_counter_report_metrics(reportId UUID, counterReport jsonb)
+RETURNS VOID AS $$
+  DELETE FROM counter_report_metrics WHERE report_id = reportId;
+
+  INSERT INTO counter_report_metrics (report_id, item_index, metric_type, provider_id,
+    report_name, release, year_month, item_name, item_platform, item_identifiers, count)
+  SELECT reportId, item_index, metric_type, counterReport->>'providerId',
+    counterReport->>'reportName', counterReport->>'release', counterReport->>'yearMonth',
+    item_name, item_platform, item_identifiers, count
+  FROM (
+    SELECT * FROM counter4_report_items(counterReport->'report')
+      WHERE counterReport->>'release' = '4'
+    UNION ALL
+    SELECT * FROM counter5_report_items(counterReport->'report')
+      WHERE counterReport->>'release' LIKE '5%'
+  ) AS items
+  WHERE metric_type IS NOT NULL AND count IS NOT NULL;
+$$ LANGUAGE sql;
+
+-- (re)build the metrics from the existing counter reports
+TRUNCATE counter_report_metrics;
+SELECT store_counter_report_metrics(r.id, r.jsonb || jsonb_build_object('report', d.report))
+FROM counter_reports r
+JOIN counter_report_data d ON d.id = r.id;
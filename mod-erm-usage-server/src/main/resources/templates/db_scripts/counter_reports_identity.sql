@@ -0,0 +1,73 @@
+-- typed columns for the identity of a counter report (providerId, reportName, release,
+-- yearMonth), generated from the jsonb, invalid values are stored as NULL
+
+-- returns the uuid, NULL if the text isn't a valid uuid
+CREATE OR REPLACE FUNCTION text_to_uuid(value TEXT) RETURNS UUID AS $$
+  SELECT CASE WHEN value ~* '^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$'
+    THEN value::UUID END;
+$$ LANGUAGE sql IMMUTABLE;
+
+-- returns the first day of a month given as yyyy-mm, NULL if the text isn't a valid month
+CREATE OR REPLACE FUNCTION year_month_to_date(yearMonth TEXT) RETURNS DATE AS $$
+  SELECT CASE WHEN yearMonth ~ '^[0-9]{4}-(0[1-9]|1[0-2])$'
+    THEN make_date(substring(yearMonth, 1, 4)::INTEGER, substring(yearMonth, 6, 2)::INTEGER, 1)
+  END;
+$$ LANGUAGE sql IMMUTABLE;
+
+-- the columns are prefixed with idx_, RMB would map columns named like a property of
+-- CounterReport (e.g. provider_id) to that property when selecting *
+ALTER TABLE counter_reports
+  ADD COLUMN IF NOT EXISTS idx_provider_id UUID
+    GENERATED ALWAYS AS (text_to_uuid(jsonb->>'providerId')) STORED,
+  ADD COLUMN IF NOT EXISTS idx_report_name TEXT
+    GENERATED ALWAYS AS (jsonb->>'reportName') STORED,
+  ADD COLUMN IF NOT EXISTS idx_release TEXT
+    GENERATED ALWAYS AS (jsonb->>'release') STORED,
+  ADD COLUMN IF NOT EXISTS idx_year_month DATE
+    GENERATED ALWAYS AS (year_month_to_date(jsonb->>'yearMonth')) STORED;
+
+-- duplicate reports of a month, which were possible before the unique index below, are moved to
+-- counter_reports_duplicates including their report. The successful and most recently updated
+-- report of a month is kept. Moved reports can be reviewed and restored by an administrator.
+CREATE TABLE IF NOT EXISTS counter_reports_duplicates (
+  id UUID PRIMARY KEY,
+  jsonb jsonb NOT NULL,
+  moved_date TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+DO $$
+DECLARE moved INTEGER;
+BEGIN
+  WITH duplicate AS (
+    SELECT id FROM (
+      SELECT id, row_number() OVER (
+        PARTITION BY idx_provider_id, idx_report_name, idx_release, idx_year_month
+        ORDER BY jsonb ? 'failedAttempts', jsonb->'metadata'->>'updatedDate' DESC NULLS LAST, id
+      ) AS rank
+      FROM counter_reports
+    ) AS reports
+    WHERE rank > 1
+  ),
+  archived AS (
+    INSERT INTO counter_reports_duplicates (id, jsonb)
+    SELECT r.id, CASE WHEN d.id IS NULL THEN r.jsonb
+      ELSE r.jsonb || jsonb_build_object('report', d.report) END
+    FROM counter_reports r
+    JOIN duplicate USING (id)
+    LEFT JOIN counter_report_data d ON d.id = r.id
+    ON CONFLICT (id) DO NOTHING
+  )
+  DELETE FROM counter_reports WHERE id IN (SELECT id FROM duplicate);
+  GET DIAGNOSTICS moved = ROW_COUNT;
+  IF moved > 0 THEN
+    RAISE WARNING 'moved % duplicate counter reports to counter_reports_duplicates', moved;
+  END IF;
+END $$;
+
+CREATE UNIQUE INDEX IF NOT EXISTS counter_reports_identity_idx
+  ON counter_reports (idx_provider_id, idx_report_name, idx_release, idx_year_month);
+
+-- replaced by counter_reports_identity_idx
+DROP INDEX IF EXISTS counter_reports_custom_getcsv_idx;
+
+ANALYZE counter_reports;
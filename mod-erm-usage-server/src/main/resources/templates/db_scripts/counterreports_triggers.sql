@@ -1,70 +1,43 @@
+-- the statistics are read from provider_report_stats, see provider_report_stats.sql
+
 -- return year-month of latest report available for a usage data provider
 CREATE OR REPLACE FUNCTION latest_year_month(providerId TEXT) RETURNS TEXT AS $$
-	SELECT MAX(jsonb->>'yearMonth') FROM counter_reports WHERE jsonb->>'providerId'=$1 AND jsonb->'failedAttempts' IS NULL;
+  SELECT MAX(year_month)
+  FROM provider_report_stats, jsonb_object_keys(month_counts) AS year_month
+  WHERE provider_id = $1;
 $$ LANGUAGE sql;
 
 -- return year-month of earliest report available for a usage data provider
 CREATE OR REPLACE FUNCTION earliest_year_month(providerId TEXT) RETURNS TEXT AS $$
-	SELECT MIN(jsonb->>'yearMonth') FROM counter_reports WHERE jsonb->>'providerId'=$1 AND jsonb->'failedAttempts' IS NULL;
+  SELECT MIN(year_month)
+  FROM provider_report_stats, jsonb_object_keys(month_counts) AS year_month
+  WHERE provider_id = $1;
 $$ LANGUAGE sql;
 
 -- returns the counter/sushi error codes of the usage data provider's counter reports
 CREATE OR REPLACE FUNCTION udp_report_errors(providerId TEXT) RETURNS jsonb AS $$
-  SELECT json_agg(error)::jsonb
-  FROM (
-    SELECT
-      CASE
-        WHEN error_code IS NOT NULL THEN error_code
-        ELSE 'other'
-      END
-    AS error
-    FROM (
-      SELECT
-        DISTINCT(SUBSTRING(jsonb->>'failedReason','Number=([0-9]{1,4})')) as error_code,
-        COUNT(jsonb->>'failedReason') as number_failed
-      FROM  	counter_reports
-      WHERE		jsonb->>'providerId'=$1 AND jsonb->>'failedReason' IS NOT NULL
-      GROUP BY 	jsonb->>'providerId', error_code, jsonb->>'failedReason')
-      AS sub
-  ) AS sub2;
+  SELECT jsonb_agg(DISTINCT error_code)
+  FROM provider_report_stats, jsonb_object_keys(error_counts) AS error_code
+  WHERE provider_id = $1;
 $$ LANGUAGE sql;
 
 -- returns the counter reports types of the usage data provider's counter reports
 CREATE OR REPLACE FUNCTION udp_report_types(providerId TEXT) RETURNS jsonb AS $$
-  SELECT json_agg(name)::jsonb
-  FROM (
-    SELECT
-      CASE
-        WHEN name IS NOT NULL THEN name
-        ELSE 'other'
-      END
-    AS name
-    FROM (
-      SELECT
-        DISTINCT(jsonb->>'reportName') as name
-      FROM  	counter_reports
-      WHERE   jsonb->>'providerId'=$1
-      GROUP BY 	jsonb->>'providerId', name)
-      AS sub
-  ) AS sub2;
+  SELECT jsonb_agg(DISTINCT CASE WHEN report_name = '' THEN 'other' ELSE report_name END)
+  FROM provider_report_stats
+  WHERE provider_id = $1;
 $$ LANGUAGE sql;
 
--- trigger function to update latest report available of an usage data provider
-CREATE OR REPLACE FUNCTION update_latest_statistic_on_update() RETURNS TRIGGER AS
+-- updates latestReport, earliestReport, reportErrorCodes, hasFailedReport and reportTypes
+-- of an usage data provider
+CREATE OR REPLACE FUNCTION update_provider_statistics(providerId TEXT) RETURNS VOID AS
 $BODY$
-DECLARE providerId TEXT;
 DECLARE latest TEXT;
 DECLARE earliest TEXT;
 DECLARE error_codes jsonb;
 DECLARE has_failed_report jsonb;
 DECLARE report_types jsonb;
 BEGIN
-  IF (TG_OP = 'DELETE') THEN
-    providerId := OLD.jsonb->>'providerId';
-  ELSE
-    providerId := NEW.jsonb->>'providerId';
-  END IF;
-
   PERFORM pg_advisory_xact_lock(hashtext(providerId));
 	SELECT latest_year_month(providerId) INTO latest;
 	SELECT earliest_year_month(providerId) INTO earliest;
@@ -89,14 +62,69 @@ BEGIN
 	    ', "hasFailedReport": ' || has_failed_report ||
 	    ', "reportTypes": ' || report_types ||
 	    '}')::jsonb	WHERE jsonb->>'id' = providerId;
+END;
+$BODY$ LANGUAGE plpgsql;
+
+-- statement level trigger function, applies the changes of the statement to
+-- provider_report_stats and updates the statistics of every affected usage data provider once
+CREATE OR REPLACE FUNCTION update_provider_statistics_on_change() RETURNS TRIGGER AS
+$BODY$
+DECLARE changes jsonb;
+DECLARE providerId TEXT;
+BEGIN
+  IF (TG_OP = 'INSERT') THEN
+    SELECT jsonb_agg(report_stats_change(jsonb, 1)) INTO changes FROM new_table;
+  ELSIF (TG_OP = 'UPDATE') THEN
+    SELECT jsonb_agg(change) INTO changes FROM (
+      SELECT report_stats_change(jsonb, 1) AS change FROM new_table
+      UNION ALL
+      SELECT report_stats_change(jsonb, -1) AS change FROM old_table
+    ) AS c;
+  ELSE
+    SELECT jsonb_agg(report_stats_change(jsonb, -1)) INTO changes FROM old_table;
+  END IF;
+
+  -- sorted, so concurrent statements acquire the advisory locks in the same order
+  FOR providerId IN
+    SELECT DISTINCT c->>'providerId' FROM jsonb_array_elements(changes) AS c
+    WHERE c->>'providerId' IS NOT NULL ORDER BY 1
+  LOOP
+    PERFORM pg_advisory_xact_lock(hashtext(providerId));
+  END LOOP;
+
+  PERFORM apply_report_stats_changes(changes);
+
+  FOR providerId IN
+    SELECT DISTINCT c->>'providerId' FROM jsonb_array_elements(changes) AS c
+    WHERE c->>'providerId' IS NOT NULL ORDER BY 1
+  LOOP
+    PERFORM update_provider_statistics(providerId);
+  END LOOP;
 
 	RETURN NULL;
 END;
 $BODY$ LANGUAGE plpgsql;
 
--- trigger to update latestReport, earliestReport, reportErrorCodes and hasFailedReport
--- of the usage data provider, on update/insert/delete
+-- triggers to update latestReport, earliestReport, reportErrorCodes, hasFailedReport and
+-- reportTypes of the usage data provider, on update/insert/delete
+-- (transition tables are only supported for triggers on a single event)
 DROP TRIGGER IF EXISTS update_usage_data_providers_on_insert_or_update_or_delete ON counter_reports;
-CREATE TRIGGER update_usage_data_providers_on_insert_or_update_or_delete
-AFTER INSERT OR UPDATE OR DELETE ON counter_reports
-FOR EACH ROW EXECUTE PROCEDURE update_latest_statistic_on_update();
+DROP FUNCTION IF EXISTS update_latest_statistic_on_update();
+
+DROP TRIGGER IF EXISTS update_usage_data_providers_on_insert ON counter_reports;
+CREATE TRIGGER update_usage_data_providers_on_insert
+AFTER INSERT ON counter_reports
+REFERENCING NEW TABLE AS new_table
+FOR EACH STATEMENT EXECUTE PROCEDURE update_provider_statistics_on_change();
+
+DROP TRIGGER IF EXISTS update_usage_data_providers_on_update ON counter_reports;
+CREATE TRIGGER update_usage_data_providers_on_update
+AFTER UPDATE ON counter_reports
+REFERENCING OLD TABLE AS old_table NEW TABLE AS new_table
+FOR EACH STATEMENT EXECUTE PROCEDURE update_provider_statistics_on_change();
+
+DROP TRIGGER IF EXISTS update_usage_data_providers_on_delete ON counter_reports;
+CREATE TRIGGER update_usage_data_providers_on_delete
+AFTER DELETE ON counter_reports
+REFERENCING OLD TABLE AS old_table
+FOR EACH STATEMENT EXECUTE PROCEDURE update_provider_statistics_on_change();
@@ -1,6 +1,3 @@
-CREATE INDEX IF NOT EXISTS counter_reports_custom_getcsv_idx ON counter_reports
-  USING btree ((jsonb ->> 'providerId'), (jsonb ->> 'reportName'), (jsonb ->> 'release'),
-    (jsonb ->> 'yearMonth'));
 CREATE INDEX IF NOT EXISTS counter_reports_custom_errorcodes_idx ON counter_reports
   USING btree(SUBSTRING(jsonb->>'failedReason','Number=([0-9]{1,4})'))
   WHERE jsonb ->> 'failedReason' IS NOT NULL;
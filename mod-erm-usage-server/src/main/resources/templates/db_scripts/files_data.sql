@@ -0,0 +1,43 @@
+-- binary contents of the files, split into chunks ordered by chunk
+--   id: id of the file that stored the content, files with the same content share it (see
+--       files.data_id), it is deleted with the last file referencing it
+CREATE TABLE IF NOT EXISTS files_data (
+  id UUID NOT NULL,
+  chunk INTEGER NOT NULL,
+  data bytea NOT NULL,
+  PRIMARY KEY (id, chunk)
+);
+
+-- the contents are compressed files (e.g. pdf, xlsx) mostly, don't try to compress them again
+ALTER TABLE files_data ALTER COLUMN data SET STORAGE EXTERNAL;
+
+-- columns of files, which is created by RMB
+--   content_hash:   SHA-256 hash of the content
+--   data_id:        id of the content in files_data, NULL if the file's own id
+--   upload_started: start of a streamed upload, NULL once the upload is complete. Files of
+--                   uploads that never completed are deleted by
+--                   ErmUsageFileHelper.deleteAbandonedUploads
+ALTER TABLE files
+  ADD COLUMN IF NOT EXISTS content_hash TEXT,
+  ADD COLUMN IF NOT EXISTS data_id UUID,
+  ADD COLUMN IF NOT EXISTS upload_started TIMESTAMPTZ;
+
+CREATE INDEX IF NOT EXISTS files_content_hash_idx ON files (content_hash);
+CREATE INDEX IF NOT EXISTS files_data_id_idx ON files (COALESCE(data_id, id));
+CREATE INDEX IF NOT EXISTS files_upload_started_idx ON files (upload_started)
+  WHERE upload_started IS NOT NULL;
+
+-- deletes the content of a deleted file if no other file references it
+CREATE OR REPLACE FUNCTION delete_files_data() RETURNS TRIGGER AS $$
+DECLARE dataId UUID := COALESCE(OLD.data_id, OLD.id);
+BEGIN
+  DELETE FROM files_data WHERE id = dataId
+    AND NOT EXISTS (SELECT 1 FROM files WHERE COALESCE(data_id, id) = dataId);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS delete_files_data ON files;
+CREATE TRIGGER delete_files_data
+AFTER DELETE ON files
+FOR EACH ROW EXECUTE PROCEDURE delete_files_data();
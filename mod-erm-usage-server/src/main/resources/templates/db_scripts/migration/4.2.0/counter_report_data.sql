@@ -0,0 +1,16 @@
+-- move the reports of existing counter reports to counter_report_data
+ALTER TABLE ${myuniversity}_${mymodule}.counter_reports
+  DISABLE TRIGGER store_counter_report_data_on_update;
+
+INSERT INTO ${myuniversity}_${mymodule}.counter_report_data (id, report, report_hash)
+  SELECT id, jsonb->'report', ${myuniversity}_${mymodule}.counter_report_hash(jsonb->'report')
+  FROM ${myuniversity}_${mymodule}.counter_reports
+  WHERE jsonb ? 'report'
+  ON CONFLICT (id) DO UPDATE SET report = EXCLUDED.report, report_hash = EXCLUDED.report_hash;
+
+UPDATE ${myuniversity}_${mymodule}.counter_reports
+  SET jsonb = jsonb - 'report'
+  WHERE jsonb ? 'report';
+
+ALTER TABLE ${myuniversity}_${mymodule}.counter_reports
+  ENABLE TRIGGER store_counter_report_data_on_update;
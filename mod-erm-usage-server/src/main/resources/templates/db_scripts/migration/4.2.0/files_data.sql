@@ -0,0 +1,18 @@
+-- move the base64 encoded contents of existing files to files_data
+INSERT INTO ${myuniversity}_${mymodule}.files_data (id, chunk, data)
+  SELECT id, 0, decode(jsonb->>'data', 'base64')
+  FROM ${myuniversity}_${mymodule}.files
+  WHERE jsonb ? 'data'
+  ON CONFLICT (id, chunk) DO NOTHING;
+
+UPDATE ${myuniversity}_${mymodule}.files
+  SET jsonb = jsonb - 'data'
+  WHERE jsonb ? 'data';
+
+-- hash the contents of existing files, identical contents are not merged
+UPDATE ${myuniversity}_${mymodule}.files f
+  SET content_hash = (
+    SELECT encode(sha256(string_agg(d.data, ''::bytea ORDER BY d.chunk)), 'hex')
+    FROM ${myuniversity}_${mymodule}.files_data d
+    WHERE d.id = COALESCE(f.data_id, f.id))
+  WHERE content_hash IS NULL;
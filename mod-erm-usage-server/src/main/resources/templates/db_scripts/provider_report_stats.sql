@@ -0,0 +1,123 @@
+-- report statistics per usage data provider, report name and release, maintained incrementally
+-- by the triggers on counter_reports
+--   report_count:  number of counter reports
+--   month_counts:  number of successful reports (without failedAttempts) per yearMonth
+--   error_counts:  number of failed reports (with failedReason) per counter/sushi error code
+--   change_id:     changes whenever a report is added or removed, or its report or counts
+--                  change, values are never reused, so they can be used to validate cached
+--                  exports. Updates of other fields of a report, e.g. downloadTime, keep it.
+-- a missing reportName or release is stored as empty string
+CREATE SEQUENCE IF NOT EXISTS provider_report_stats_change_seq;
+
+CREATE TABLE IF NOT EXISTS provider_report_stats (
+  provider_id TEXT NOT NULL,
+  report_name TEXT NOT NULL,
+  release TEXT NOT NULL,
+  report_count INTEGER NOT NULL DEFAULT 0,
+  month_counts jsonb NOT NULL DEFAULT '{}'::jsonb,
+  error_counts jsonb NOT NULL DEFAULT '{}'::jsonb,
+  change_id BIGINT NOT NULL DEFAULT nextval('provider_report_stats_change_seq'),
+  PRIMARY KEY (provider_id, report_name, release)
+);
+
+-- adds the counts of two count objects, e.g. {"a": 1} + {"a": -1, "b": 1} = {"b": 1}
+CREATE OR REPLACE FUNCTION jsonb_sum_counts(a jsonb, b jsonb) RETURNS jsonb AS $$
+  SELECT COALESCE(jsonb_object_agg(key, total), '{}'::jsonb)
+  FROM (
+    SELECT key, SUM(value::INTEGER) AS total
+    FROM (
+      SELECT * FROM jsonb_each_text(COALESCE(a, '{}'::jsonb))
+      UNION ALL
+      SELECT * FROM jsonb_each_text(COALESCE(b, '{}'::jsonb))
+    ) AS counts
+    GROUP BY key
+    HAVING SUM(value::INTEGER) <> 0
+  ) AS sums;
+$$ LANGUAGE sql IMMUTABLE;
+
+-- returns the properties of a counter report relevant for the statistics, sign is 1 for an added
+-- and -1 for a removed report
+CREATE OR REPLACE FUNCTION report_stats_change(report jsonb, sign INTEGER) RETURNS jsonb AS $$
+  SELECT jsonb_build_object(
+    'providerId', report->>'providerId',
+    'reportName', COALESCE(report->>'reportName', ''),
+    'release', COALESCE(report->>'release', ''),
+    'yearMonth', CASE WHEN report->'failedAttempts' IS NULL THEN report->>'yearMonth' END,
+    'errorCode', CASE WHEN report->>'failedReason' IS NOT NULL THEN
+      COALESCE(SUBSTRING(report->>'failedReason', 'Number=([0-9]{1,4})'), 'other') END,
+    'sign', sign);
+$$ LANGUAGE sql IMMUTABLE;
+
+-- applies changes created by report_stats_change to provider_report_stats
+CREATE OR REPLACE FUNCTION apply_report_stats_changes(changes jsonb) RETURNS VOID AS $$
+  WITH change AS (
+    SELECT
+      c->>'providerId' AS provider_id,
+      c->>'reportName' AS report_name,
+      c->>'release' AS release,
+      c->>'yearMonth' AS year_month,
+      c->>'errorCode' AS error_code,
+      (c->>'sign')::INTEGER AS sign
+    FROM jsonb_array_elements(changes) AS c
+    WHERE c->>'providerId' IS NOT NULL
+  ),
+  month_change AS (
+    SELECT provider_id, report_name, release, jsonb_object_agg(year_month, cnt) AS month_counts
+    FROM (
+      SELECT provider_id, report_name, release, year_month, SUM(sign) AS cnt
+      FROM change WHERE year_month IS NOT NULL
+      GROUP BY provider_id, report_name, release, year_month
+    ) AS months
+    GROUP BY provider_id, report_name, release
+  ),
+  error_change AS (
+    SELECT provider_id, report_name, release, jsonb_object_agg(error_code, cnt) AS error_counts
+    FROM (
+      SELECT provider_id, report_name, release, error_code, SUM(sign) AS cnt
+      FROM change WHERE error_code IS NOT NULL
+      GROUP BY provider_id, report_name, release, error_code
+    ) AS errors
+    GROUP BY provider_id, report_name, release
+  ),
+  key_change AS (
+    SELECT provider_id, report_name, release, SUM(sign) AS report_count
+    FROM change
+    GROUP BY provider_id, report_name, release
+  )
+  INSERT INTO provider_report_stats AS s
+    (provider_id, report_name, release, report_count, month_counts, error_counts)
+  SELECT
+    provider_id, report_name, release, report_count,
+    jsonb_sum_counts(NULL, month_counts),
+    jsonb_sum_counts(NULL, error_counts)
+  FROM key_change
+  LEFT JOIN month_change USING (provider_id, report_name, release)
+  LEFT JOIN error_change USING (provider_id, report_name, release)
+  -- sorted, so concurrent statements lock the rows in the same order
+  ORDER BY provider_id, report_name, release
+  ON CONFLICT (provider_id, report_name, release) DO UPDATE SET
+    report_count = s.report_count + EXCLUDED.report_count,
+    month_counts = jsonb_sum_counts(s.month_counts, EXCLUDED.month_counts),
+    error_counts = jsonb_sum_counts(s.error_counts, EXCLUDED.error_counts),
+    change_id = CASE
+      WHEN EXCLUDED.report_count = 0 AND EXCLUDED.month_counts = '{}'::jsonb
+        AND EXCLUDED.error_counts = '{}'::jsonb THEN s.change_id
+      ELSE nextval('provider_report_stats_change_seq') END;
+
+  DELETE FROM provider_report_stats WHERE report_count <= 0;
+$$ LANGUAGE sql;
+
+-- changes the change_id of the reports of a counter report's provider, report name and release,
+-- used if the report of a counter report changes without changing the counts
+CREATE OR REPLACE FUNCTION change_report_stats_change_id(counterReport jsonb) RETURNS VOID AS $$
+  UPDATE provider_report_stats SET change_id = nextval('provider_report_stats_change_seq')
+  WHERE provider_id = counterReport->>'providerId'
+    AND report_name = COALESCE(counterReport->>'reportName', '')
+    AND release = COALESCE(counterReport->>'release', '');
+$$ LANGUAGE sql;
+
+-- (re)build the statistics from the existing counter reports
+TRUNCATE provider_report_stats;
+SELECT apply_report_stats_changes(jsonb_agg(report_stats_change(jsonb, 1)))
+FROM counter_reports
+GROUP BY jsonb->>'providerId';
@@ -0,0 +1,6 @@
+-- lease of an upload job, see UploadJobWorker
+--   owner:       id of the module instance processing the job
+--   lease_until: the job is taken over by another instance if its lease is not renewed until then
+ALTER TABLE upload_jobs
+  ADD COLUMN IF NOT EXISTS owner UUID,
+  ADD COLUMN IF NOT EXISTS lease_until TIMESTAMPTZ;
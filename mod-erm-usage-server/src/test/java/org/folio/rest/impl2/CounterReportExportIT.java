@@ -30,7 +30,13 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.folio.okapi.common.XOkapiHeaders;
 import org.folio.rest.RestVerticle;
 import org.folio.rest.jaxrs.model.CounterReport;
@@ -39,7 +45,9 @@ import org.folio.rest.persist.Criteria.Criterion;
 import org.folio.rest.persist.PostgresClient;
 import org.folio.rest.tools.utils.NetworkUtils;
 import org.folio.rest.util.Constants;
+import org.folio.rest.util.PgHelper;
 import org.folio.rest.util.PostgresContainerRule;
+import org.folio.rest.util.ReportFragments;
 import org.joda.time.LocalDate;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -48,7 +56,12 @@ import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.niso.schemas.counter.Report;
 import org.olf.erm.usage.counter.common.ExcelUtil;
+import org.olf.erm.usage.counter41.Counter4Utils;
+import org.olf.erm.usage.counter41.Counter4Utils.ReportMergeException;
+import org.olf.erm.usage.counter50.Counter5Utils;
+import org.olf.erm.usage.counter50.Counter5Utils.Counter5UtilsException;
 
 @RunWith(VertxUnitRunner.class)
 public class CounterReportExportIT {
@@ -124,6 +137,15 @@ public class CounterReportExportIT {
     }
   }
 
+  // the report of the resource with its month and dates moved to the given month
+  private String reportForMonth(String path, YearMonth month) {
+    String json = resourceToString(path);
+    YearMonth original = YearMonth.parse(new JsonObject(json).getString("yearMonth"));
+    return json.replace(original.atEndOfMonth().toString(), month.atEndOfMonth().toString())
+        .replace(original.atDay(1).toString(), month.atDay(1).toString())
+        .replace("\"yearMonth\": \"" + original + "\"", "\"yearMonth\": \"" + month + "\"");
+  }
+
   private void testThatDBIsEmpty() {
     int size =
         get().then().statusCode(200).extract().as(CounterReports.class).getCounterReports().size();
@@ -194,6 +216,208 @@ public class CounterReportExportIT {
                 "Title 1,My Press,Proprietary=my:mypress,My Journals,8910.DOI,my:foo,,0011-1122,0123-4567,,,,,,,Total_Item_Investigations,9,3,,6"));
   }
 
+  @Test
+  public void testExportCSVOkTRManyMonths() {
+    YearMonth begin = YearMonth.of(2018, 1);
+    int months = 24;
+    for (int i = 0; i < months; i++) {
+      given()
+          .body(reportForMonth("TR/TR_1.json", begin.plusMonths(i)))
+          .post()
+          .then()
+          .statusCode(201);
+    }
+
+    String csv =
+        given()
+            .pathParam("id", "4b659cb9-e4bb-493d-ae30-5f5690c54802")
+            .pathParam("name", "TR")
+            .pathParam("version", "5")
+            .pathParam("begin", begin.toString())
+            .pathParam("end", begin.plusMonths(months - 1L).toString())
+            .get("/export/provider/{id}/report/{name}/version/{version}/from/{begin}/to/{end}")
+            .then()
+            .statusCode(200)
+            .extract()
+            .asString();
+    assertThat(csv.lines())
+        .contains(
+            "Title 1,My Press,Proprietary=my:mypress,My Journals,8910.DOI,my:foo,,0011-1122,0123-4567,,,,,,,Total_Item_Investigations,"
+                + 3 * months
+                + ","
+                + String.join(",", Collections.nCopies(months, "3")));
+  }
+
+  // posts the resources for consecutive months, cycling through them, and returns their reports
+  private List<String> postMonths(List<String> paths, YearMonth begin, int months) {
+    List<String> reports = new ArrayList<>();
+    for (int i = 0; i < months; i++) {
+      String json = reportForMonth(paths.get(i % paths.size()), begin.plusMonths(i));
+      given().body(json).post().then().statusCode(201);
+      reports.add(new JsonObject(json).getJsonObject("report").encode());
+    }
+    return reports;
+  }
+
+  private String exportCSV(String name, String version, YearMonth begin, int months) {
+    return given()
+        .pathParam("id", "4b659cb9-e4bb-493d-ae30-5f5690c54802")
+        .pathParam("name", name)
+        .pathParam("version", version)
+        .pathParam("begin", begin.toString())
+        .pathParam("end", begin.plusMonths(months - 1L).toString())
+        .get("/export/provider/{id}/report/{name}/version/{version}/from/{begin}/to/{end}")
+        .then()
+        .statusCode(200)
+        .extract()
+        .asString();
+  }
+
+  @Test
+  public void testExportJR1ManyMonthsEqualsFlatMerge() throws ReportMergeException {
+    // more months than MERGE_BATCH_SIZE, so the reports are merged as a tree
+    YearMonth begin = YearMonth.of(2018, 1);
+    List<String> reports =
+        postMonths(List.of("JR1/jr1_1.json", "JR1/jr1_2.json", "JR1/jr1_3.json"), begin, 15);
+
+    Report merged =
+        Counter4Utils.merge(
+            reports.stream().map(Counter4Utils::fromJSON).collect(Collectors.toList()));
+    assertThat(exportCSV("JR1", "4", begin, 15)).isEqualTo(Counter4Utils.toCSV(merged));
+  }
+
+  @Test
+  public void testExportTRManyMonthsEqualsFlatMerge() throws Counter5UtilsException {
+    YearMonth begin = YearMonth.of(2018, 1);
+    List<String> reports =
+        postMonths(List.of("TR/TR_1.json", "TR/TR_2.json", "TR/TR_3.json"), begin, 13);
+
+    List<Object> converted = new ArrayList<>();
+    for (String report : reports) {
+      converted.add(Counter5Utils.fromJSON(report));
+    }
+    assertThat(exportCSV("TR", "5", begin, 13))
+        .isEqualTo(Counter5Utils.toCSV(Counter5Utils.merge(converted)));
+  }
+
+  // saves the reports like an upload does, which stores their export fragments
+  private void saveCounterReports(TestContext context, List<String> paths) throws Exception {
+    List<CounterReport> reports =
+        paths.stream()
+            .map(path -> Json.decodeValue(resourceToString(path), CounterReport.class))
+            .collect(Collectors.toList());
+    List<String> fragments = new ArrayList<>();
+    for (CounterReport report : reports) {
+      String json = Json.encode(report.getReport());
+      Object counterReport =
+          "4".equals(report.getRelease())
+              ? Counter4Utils.fromJSON(json)
+              : Counter5Utils.fromJSON(json);
+      fragments.add(ReportFragments.create(counterReport, report.getRelease()));
+    }
+    Async async = context.async();
+    PgHelper.saveCounterReportsToDb(
+            vertx.getOrCreateContext(),
+            Map.of(XOkapiHeaders.TENANT.toLowerCase(), TENANT),
+            reports,
+            fragments,
+            false)
+        .onComplete(context.asyncAssertSuccess(saved -> async.complete()));
+    async.await();
+  }
+
+  private Future<RowSet<Row>> executeSql(String sql) {
+    Promise<RowSet<Row>> promise = Promise.promise();
+    PostgresClient.getInstance(vertx, TENANT).execute(sql, promise);
+    return promise.future();
+  }
+
+  private void assertThatFragmentExportEqualsFallbackExport(
+      TestContext context, List<String> paths, String name, String version, YearMonth begin)
+      throws Exception {
+    saveCounterReports(context, paths);
+    Async async = context.async();
+    executeSql("SELECT COUNT(*) FROM " + Constants.TABLE_NAME_COUNTER_REPORT_FRAGMENTS)
+        .onComplete(
+            context.asyncAssertSuccess(
+                rows -> {
+                  assertThat(rows.iterator().next().getLong(0)).isEqualTo((long) paths.size());
+                  async.complete();
+                }));
+    async.await();
+    String fromFragments = exportCSV(name, version, begin, paths.size());
+
+    // without fragments the reports are converted and merged, the range starts a month earlier
+    // so the cached export isn't returned
+    Async deleted = context.async();
+    executeSql("DELETE FROM " + Constants.TABLE_NAME_COUNTER_REPORT_FRAGMENTS)
+        .onComplete(context.asyncAssertSuccess(rows -> deleted.complete()));
+    deleted.await();
+    String fallback = exportCSV(name, version, begin.minusMonths(1), paths.size() + 1);
+
+    assertThat(fromFragments).isEqualTo(fallback);
+  }
+
+  @Test
+  public void testFragmentExportEqualsFallbackExportJR1(TestContext context) throws Exception {
+    assertThatFragmentExportEqualsFallbackExport(
+        context,
+        List.of("JR1/jr1_1.json", "JR1/jr1_2.json", "JR1/jr1_3.json"),
+        "JR1",
+        "4",
+        YearMonth.of(2019, 1));
+  }
+
+  @Test
+  public void testFragmentExportEqualsFallbackExportTR(TestContext context) throws Exception {
+    assertThatFragmentExportEqualsFallbackExport(
+        context,
+        List.of("TR/TR_1.json", "TR/TR_2.json", "TR/TR_3.json"),
+        "TR",
+        "5",
+        YearMonth.of(2019, 9));
+  }
+
+  @Test
+  public void testGetReportMonths() {
+    given().body(resourceToString("TR/TR_1.json")).post().then().statusCode(201);
+    given().body(resourceToString("TR/TR_2.json")).post().then().statusCode(201);
+    given().body(resourceToString("TR/TR_3.json")).post().then().statusCode(201);
+
+    CounterReports reports =
+        given()
+            .pathParam("id", "4b659cb9-e4bb-493d-ae30-5f5690c54802")
+            .pathParam("name", "TR")
+            .pathParam("version", "5")
+            .pathParam("begin", "2019-08")
+            .pathParam("end", "2019-10")
+            .get("/months/provider/{id}/report/{name}/version/{version}/from/{begin}/to/{end}")
+            .then()
+            .statusCode(200)
+            .extract()
+            .as(CounterReports.class);
+    assertThat(reports.getTotalRecords()).isEqualTo(2);
+    assertThat(reports.getCounterReports())
+        .extracting(CounterReport::getYearMonth)
+        .containsExactly("2019-09", "2019-10");
+    assertThat(reports.getCounterReports())
+        .allSatisfy(
+            cr -> {
+              assertThat(cr.getId()).isNotNull();
+              assertThat(cr.getReport()).isNull();
+            });
+
+    given()
+        .pathParam("id", "4b659cb9-e4bb-493d-ae30-5f5690c54802")
+        .pathParam("name", "TR")
+        .pathParam("version", "5")
+        .pathParam("begin", "2019-8")
+        .pathParam("end", "2019-10")
+        .get("/months/provider/{id}/report/{name}/version/{version}/from/{begin}/to/{end}")
+        .then()
+        .statusCode(400);
+  }
+
   @Test
   public void testExportCSVNoMapper() {
     CounterReport badReleaseNo =
@@ -280,7 +280,9 @@ public class CounterReportIT {
         .then()
         .statusCode(201)
         .body("release", equalTo(report.getRelease()))
-        .body("id", equalTo(report.getId()));
+        .body("id", equalTo(report.getId()))
+        .body("report.id", equalTo(report.getReport().getAdditionalProperties().get("id")))
+        .body("report.vendor.name", equalTo("Semantico Ltd."));
 
     // GET
     given(counterReportsReqSpec)
@@ -357,6 +359,42 @@ public class CounterReportIT {
     given(counterReportsReqSpec).delete("/" + report.getId()).then().statusCode(204);
   }
 
+  @Test
+  public void checkThatTinyReportsAreReturnedWithoutReport() {
+    given(counterReportsReqSpec).body(Json.encode(report)).post().then().statusCode(201);
+
+    CounterReports result =
+        given(counterReportsReqSpec)
+            .queryParam("tiny", true)
+            .queryParam("query", "(reportName==\"JR1\")")
+            .get()
+            .then()
+            .contentType(ContentType.JSON)
+            .statusCode(200)
+            .extract()
+            .as(CounterReports.class);
+    assertThat(result.getCounterReports())
+        .singleElement()
+        .satisfies(
+            cr -> {
+              assertThat(cr.getId()).isEqualTo(report.getId());
+              assertThat(cr.getProviderId()).isEqualTo(report.getProviderId());
+              assertThat(cr.getReportName()).isEqualTo(report.getReportName());
+              assertThat(cr.getRelease()).isEqualTo(report.getRelease());
+              assertThat(cr.getYearMonth()).isEqualTo(report.getYearMonth());
+              assertThat(cr.getReport()).isNull();
+            });
+
+    given(counterReportsReqSpec)
+        .get("/sorted/" + report.getProviderId())
+        .then()
+        .contentType(ContentType.JSON)
+        .statusCode(200)
+        .body(
+            "counterReportsPerYear[0].reportsPerType[0].counterReports[0].yearMonth",
+            equalTo(report.getYearMonth()));
+  }
+
   @Test
   public void checkThatInvalidCounterReportIsNotPosted() {
     CounterReport invalidReport =
@@ -4,6 +4,7 @@ import static io.restassured.RestAssured.get;
 import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.Matchers.containsString;
 
 import com.google.common.io.Files;
@@ -29,6 +30,8 @@ import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.xml.bind.JAXB;
 import org.folio.okapi.common.XOkapiHeaders;
@@ -41,6 +44,8 @@ import org.folio.rest.jaxrs.model.CounterReportDocument;
 import org.folio.rest.jaxrs.model.CounterReports;
 import org.folio.rest.jaxrs.model.ReportMetadata;
 import org.folio.rest.jaxrs.model.TenantAttributes;
+import org.folio.rest.jaxrs.model.UploadJob;
+import org.folio.rest.jaxrs.model.UploadJob.Status;
 import org.folio.rest.jaxrs.model.UsageDataProvider;
 import org.folio.rest.persist.Criteria.Criterion;
 import org.folio.rest.persist.PostgresClient;
@@ -283,6 +288,99 @@ public class CounterReportUploadIT {
     assertThat(reportFromXML).usingRecursiveComparison().isEqualTo(reportFromDB);
   }
 
+  @Test
+  public void testReportR4OkStream() throws IOException {
+    String savedReportIds =
+        given()
+            .header(HttpHeaders.CONTENT_TYPE, ContentType.BINARY)
+            .body(Files.toByteArray(FILE_REPORT_MULTI_COP4))
+            .queryParam("reportEditedManually", true)
+            .queryParam("editReason", "Edit Reason")
+            .post("/counter-reports/upload/provider/" + PROVIDER_ID + "/stream")
+            .then()
+            .statusCode(200)
+            .body(containsString("Saved report with ids"))
+            .extract()
+            .asString()
+            .replace("Saved report with ids: ", "");
+
+    String query =
+        String.format(
+            "/counter-reports?query=(reportName=JR1 AND providerId=%s) sortby yearMonth",
+            PROVIDER_ID);
+    CounterReports reports = given().get(query).then().extract().as(CounterReports.class);
+    assertThat(reports.getCounterReports().stream().map(CounterReport::getYearMonth))
+        .containsExactly("2018-03", "2018-04");
+    assertThat(reports.getCounterReports().stream().map(CounterReport::getId))
+        .containsExactlyInAnyOrder(savedReportIds.split(","));
+    assertThat(reports.getCounterReports())
+        .allSatisfy(
+            cr -> {
+              assertThat(cr.getReportEditedManually()).isTrue();
+              assertThat(cr.getEditReason()).isEqualTo("Edit Reason");
+            });
+
+    given()
+        .header(HttpHeaders.CONTENT_TYPE, ContentType.BINARY)
+        .body(Files.toByteArray(FILE_REPORT_MULTI_COP4))
+        .post("/counter-reports/upload/provider/" + PROVIDER_ID + "/stream")
+        .then()
+        .statusCode(500)
+        .body(containsString("Report already existing"));
+  }
+
+  @Test
+  public void testReportStreamWrongFormat() throws IOException {
+    given()
+        .header(HttpHeaders.CONTENT_TYPE, ContentType.BINARY)
+        .body(Files.toByteArray(FILE_NO_REPORT))
+        .post("/counter-reports/upload/provider/" + PROVIDER_ID + "/stream")
+        .then()
+        .statusCode(400)
+        .body(containsString("Wrong format"));
+  }
+
+  @Test
+  public void testReportR4OkAsync() throws IOException {
+    CounterReportDocument report =
+        createReport(FILE_REPORT_MULTI_COP4, "application/xml", true, "Edit Reason");
+    UploadJob job =
+        given()
+            .header(HttpHeaders.CONTENT_TYPE, ContentType.JSON)
+            .body(report)
+            .queryParam("async", true)
+            .post("/counter-reports/upload/provider/" + PROVIDER_ID)
+            .then()
+            .statusCode(202)
+            .extract()
+            .as(UploadJob.class);
+    assertThat(job.getId()).isNotNull();
+    assertThat(job.getProviderId()).isEqualTo(PROVIDER_ID);
+
+    String jobPath = "/counter-reports/upload/jobs/" + job.getId();
+    job =
+        await()
+            .atMost(10, TimeUnit.SECONDS)
+            .until(
+                () -> given().get(jobPath).then().statusCode(200).extract().as(UploadJob.class),
+                j -> j.getStatus() == Status.FINISHED);
+    assertThat(job.getMonthsParsed()).isEqualTo(2);
+    assertThat(job.getMonthsSaved()).isEqualTo(2);
+    assertThat(job.getFileId()).isNull();
+
+    String query =
+        String.format(
+            "/counter-reports?query=(reportName=JR1 AND providerId=%s) sortby yearMonth",
+            PROVIDER_ID);
+    CounterReports reports = given().get(query).then().extract().as(CounterReports.class);
+    assertThat(reports.getCounterReports().stream().map(CounterReport::getId))
+        .containsExactlyInAnyOrderElementsOf(job.getReportIds());
+    assertThat(reports.getCounterReports())
+        .allSatisfy(cr -> assertThat(cr.getEditReason()).isEqualTo("Edit Reason"));
+
+    given().get("/counter-reports/upload/jobs/" + UUID.randomUUID()).then().statusCode(404);
+  }
+
   @Test
   public void testReportR4UnsupportedReport() throws IOException {
     CounterReportDocument report = createReportFromJson(FILE_REPORT_UNSUPPORTED);
@@ -1,11 +1,20 @@
 package org.folio.rest.impl2;
 
 import static com.google.common.net.HttpHeaders.ACCEPT;
+import static com.google.common.net.HttpHeaders.ACCEPT_RANGES;
+import static com.google.common.net.HttpHeaders.CONTENT_LENGTH;
+import static com.google.common.net.HttpHeaders.CONTENT_RANGE;
 import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_NONE_MATCH;
+import static com.google.common.net.HttpHeaders.IF_RANGE;
+import static com.google.common.net.HttpHeaders.RANGE;
 import static io.restassured.RestAssured.given;
 import static io.restassured.http.ContentType.BINARY;
 import static io.restassured.http.ContentType.TEXT;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.folio.rest.util.Constants.TABLE_NAME_FILES;
+import static org.folio.rest.util.Constants.TABLE_NAME_FILES_DATA;
 import static org.hamcrest.Matchers.equalTo;
 
 import io.reactivex.Single;
@@ -13,7 +22,9 @@ import io.reactivex.schedulers.Schedulers;
 import io.restassured.RestAssured;
 import io.restassured.builder.RequestSpecBuilder;
 import io.restassured.parsing.Parser;
+import io.vertx.core.Context;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
@@ -23,8 +34,14 @@ import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.reactivex.core.buffer.Buffer;
 import io.vertx.reactivex.ext.web.client.HttpResponse;
 import io.vertx.reactivex.ext.web.client.WebClient;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.lang3.RandomUtils;
@@ -32,9 +49,11 @@ import org.folio.okapi.common.XOkapiHeaders;
 import org.folio.postgres.testing.PostgresTesterContainer;
 import org.folio.rest.RestVerticle;
 import org.folio.rest.impl.TenantAPI;
+import org.folio.rest.jaxrs.model.ErmUsageFile;
 import org.folio.rest.jaxrs.model.TenantAttributes;
 import org.folio.rest.persist.PostgresClient;
 import org.folio.rest.tools.utils.NetworkUtils;
+import org.folio.rest.util.ErmUsageFileHelper;
 import org.folio.rest.util.ModuleVersion;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -194,4 +213,251 @@ public class ErmUsageFilesIT {
         .contentType(TEXT)
         .statusCode(404);
   }
+
+  @Test
+  public void testLargeFileIsStoredInChunks(TestContext context) {
+    byte[] content = RandomUtils.nextBytes(2500000);
+    String id =
+        given()
+            .body(content)
+            .header(CONTENT_TYPE, BINARY)
+            .post(ERM_USAGE_FILES_ENDPOINT)
+            .then()
+            .statusCode(200)
+            .extract()
+            .path("id");
+
+    byte[] result =
+        given()
+            .header(CONTENT_TYPE, BINARY)
+            .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+            .then()
+            .statusCode(200)
+            .extract()
+            .asByteArray();
+    assertThat(result).isEqualTo(content);
+
+    PostgresClient.getInstance(vertx, TENANT)
+        .select(
+            "SELECT COUNT(*) FROM " + TABLE_NAME_FILES_DATA + " WHERE id = $1",
+            Tuple.of(UUID.fromString(id)),
+            context.asyncAssertSuccess(
+                rows -> assertThat(rows.iterator().next().getLong(0)).isEqualTo(3)));
+  }
+
+  @Test
+  public void testIdenticalFilesShareContent(TestContext context) {
+    byte[] content = RandomUtils.nextBytes(1500000);
+    String id1 =
+        given()
+            .body(content)
+            .header(CONTENT_TYPE, BINARY)
+            .post(ERM_USAGE_FILES_ENDPOINT)
+            .then()
+            .statusCode(200)
+            .extract()
+            .path("id");
+    String id2 =
+        given()
+            .body(content)
+            .header(CONTENT_TYPE, BINARY)
+            .post(ERM_USAGE_FILES_ENDPOINT)
+            .then()
+            .statusCode(200)
+            .extract()
+            .path("id");
+    assertThat(id1).isNotEqualTo(id2);
+
+    String countChunks =
+        "SELECT COUNT(*) FROM "
+            + TABLE_NAME_FILES_DATA
+            + " WHERE id IN (SELECT COALESCE(data_id, id) FROM "
+            + TABLE_NAME_FILES
+            + " WHERE id = ANY($1))";
+    Tuple params = Tuple.of(new UUID[] {UUID.fromString(id1), UUID.fromString(id2)});
+    Async async = context.async();
+    PostgresClient.getInstance(vertx, TENANT)
+        .select(
+            countChunks,
+            params,
+            context.asyncAssertSuccess(
+                rows -> {
+                  assertThat(rows.iterator().next().getLong(0)).isEqualTo(2);
+                  async.complete();
+                }));
+    async.await();
+
+    // the content is kept as long as a file references it
+    given().delete(ERM_USAGE_FILES_ENDPOINT + "/" + id1).then().statusCode(204);
+    byte[] result =
+        given()
+            .get(ERM_USAGE_FILES_ENDPOINT + "/" + id2)
+            .then()
+            .statusCode(200)
+            .extract()
+            .asByteArray();
+    assertThat(result).isEqualTo(content);
+
+    given().delete(ERM_USAGE_FILES_ENDPOINT + "/" + id2).then().statusCode(204);
+    PostgresClient.getInstance(vertx, TENANT)
+        .select(
+            "SELECT COUNT(*) FROM " + TABLE_NAME_FILES_DATA + " WHERE id = ANY($1)",
+            params,
+            context.asyncAssertSuccess(
+                rows -> assertThat(rows.iterator().next().getLong(0)).isZero()));
+  }
+
+  @Test
+  public void testAbandonedUploadsAreDeleted(TestContext context) {
+    Context vertxContext = vertx.getOrCreateContext();
+    Map<String, String> okapiHeaders = Map.of(XOkapiHeaders.TENANT.toLowerCase(), TENANT);
+    String abandoned = UUID.randomUUID().toString();
+    String running = UUID.randomUUID().toString();
+    String completed = UUID.randomUUID().toString();
+    byte[] content = TEST_CONTENT.getBytes();
+
+    Async async = context.async();
+    ErmUsageFileHelper.createFile(vertxContext, okapiHeaders, abandoned)
+        .compose(
+            v ->
+                ErmUsageFileHelper.insertChunk(
+                    vertxContext,
+                    okapiHeaders,
+                    abandoned,
+                    0,
+                    io.vertx.core.buffer.Buffer.buffer(content)))
+        .compose(v -> ErmUsageFileHelper.createFile(vertxContext, okapiHeaders, running))
+        .compose(v -> ErmUsageFileHelper.createFile(vertxContext, okapiHeaders, completed))
+        .compose(
+            v ->
+                ErmUsageFileHelper.updateContentHash(
+                    vertxContext, okapiHeaders, completed, UUID.randomUUID().toString()))
+        .compose(
+            v -> {
+              Promise<RowSet<Row>> result = Promise.promise();
+              // pretend the first upload was started two days ago
+              PostgresClient.getInstance(vertx, TENANT)
+                  .execute(
+                      "UPDATE "
+                          + TABLE_NAME_FILES
+                          + " SET upload_started = now() - interval '2 days'"
+                          + " WHERE id = $1",
+                      Tuple.of(UUID.fromString(abandoned)),
+                      result);
+              return result.future();
+            })
+        .compose(v -> ErmUsageFileHelper.deleteAbandonedUploads(vertx, TENANT))
+        .onComplete(
+            context.asyncAssertSuccess(
+                count -> {
+                  assertThat(count).isEqualTo(1);
+                  async.complete();
+                }));
+    async.await();
+
+    given().get(ERM_USAGE_FILES_ENDPOINT + "/" + abandoned).then().statusCode(404);
+    given().get(ERM_USAGE_FILES_ENDPOINT + "/" + running).then().statusCode(200);
+    given().get(ERM_USAGE_FILES_ENDPOINT + "/" + completed).then().statusCode(200);
+    PostgresClient.getInstance(vertx, TENANT)
+        .select(
+            "SELECT COUNT(*) FROM " + TABLE_NAME_FILES_DATA + " WHERE id = $1",
+            Tuple.of(UUID.fromString(abandoned)),
+            context.asyncAssertSuccess(
+                rows -> assertThat(rows.iterator().next().getLong(0)).isZero()));
+  }
+
+  @Test
+  public void testGetBase64EncodedFile(TestContext context) {
+    // files stored before the contents were moved to files_data
+    String id = UUID.randomUUID().toString();
+    ErmUsageFile file =
+        new ErmUsageFile()
+            .withId(id)
+            .withData(Base64.getEncoder().encodeToString(TEST_CONTENT.getBytes()));
+    Async async = context.async();
+    PostgresClient.getInstance(vertx, TENANT)
+        .save(TABLE_NAME_FILES, id, file, context.asyncAssertSuccess(s -> async.complete()));
+    async.await();
+
+    given()
+        .header(CONTENT_TYPE, BINARY)
+        .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+        .then()
+        .contentType(BINARY)
+        .statusCode(200)
+        .body(equalTo(TEST_CONTENT));
+  }
+
+  @Test
+  public void testGetFileRange() {
+    byte[] content = RandomUtils.nextBytes(2500000);
+    String id =
+        given()
+            .body(content)
+            .header(CONTENT_TYPE, BINARY)
+            .post(ERM_USAGE_FILES_ENDPOINT)
+            .then()
+            .statusCode(200)
+            .extract()
+            .path("id");
+
+    String eTag =
+        given()
+            .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+            .then()
+            .statusCode(200)
+            .header(CONTENT_LENGTH, "2500000")
+            .header(ACCEPT_RANGES, "bytes")
+            .extract()
+            .header(ETAG);
+    assertThat(eTag).isNotBlank();
+
+    // range spanning the first and second chunk
+    byte[] result =
+        given()
+            .header(RANGE, "bytes=1048000-1049999")
+            .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+            .then()
+            .statusCode(206)
+            .header(CONTENT_LENGTH, "2000")
+            .header(CONTENT_RANGE, "bytes 1048000-1049999/2500000")
+            .extract()
+            .asByteArray();
+    assertThat(result).isEqualTo(Arrays.copyOfRange(content, 1048000, 1050000));
+
+    result =
+        given()
+            .header(RANGE, "bytes=-100")
+            .header(IF_RANGE, eTag)
+            .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+            .then()
+            .statusCode(206)
+            .header(CONTENT_RANGE, "bytes 2499900-2499999/2500000")
+            .extract()
+            .asByteArray();
+    assertThat(result).isEqualTo(Arrays.copyOfRange(content, 2499900, 2500000));
+
+    // the whole file is sent if If-Range doesn't match
+    given()
+        .header(RANGE, "bytes=-100")
+        .header(IF_RANGE, "\"other\"")
+        .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+        .then()
+        .statusCode(200)
+        .header(CONTENT_LENGTH, "2500000");
+
+    given()
+        .header(RANGE, "bytes=2500000-")
+        .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+        .then()
+        .statusCode(416)
+        .header(CONTENT_RANGE, "bytes */2500000");
+
+    given()
+        .header(IF_NONE_MATCH, eTag)
+        .get(ERM_USAGE_FILES_ENDPOINT + "/" + id)
+        .then()
+        .statusCode(304)
+        .header(ETAG, eTag);
+  }
 }
@@ -0,0 +1,47 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+  @Test
+  public void testParse() {
+    ByteRange range = ByteRange.parse("bytes=0-499", 1000);
+    assertThat(range.isSatisfiable()).isTrue();
+    assertThat(range.getStart()).isZero();
+    assertThat(range.getLength()).isEqualTo(500);
+    assertThat(range.getContentRange()).isEqualTo("bytes 0-499/1000");
+
+    range = ByteRange.parse("bytes=500-", 1000);
+    assertThat(range.getContentRange()).isEqualTo("bytes 500-999/1000");
+
+    range = ByteRange.parse("bytes=900-2000", 1000);
+    assertThat(range.getContentRange()).isEqualTo("bytes 900-999/1000");
+
+    range = ByteRange.parse("bytes=-100", 1000);
+    assertThat(range.getContentRange()).isEqualTo("bytes 900-999/1000");
+
+    range = ByteRange.parse("bytes=-2000", 1000);
+    assertThat(range.getContentRange()).isEqualTo("bytes 0-999/1000");
+  }
+
+  @Test
+  public void testParseNotSatisfiable() {
+    assertThat(ByteRange.parse("bytes=1000-", 1000).isSatisfiable()).isFalse();
+    assertThat(ByteRange.parse("bytes=-0", 1000).isSatisfiable()).isFalse();
+    assertThat(ByteRange.parse("bytes=0-", 0).isSatisfiable()).isFalse();
+    assertThat(ByteRange.parse("bytes=1000-", 1000).getContentRange()).isEqualTo("bytes */1000");
+  }
+
+  @Test
+  public void testParseIgnored() {
+    assertThat(ByteRange.parse(null, 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=-", 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=500-100", 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=0-10,20-30", 1000)).isNull();
+    assertThat(ByteRange.parse("items=0-10", 1000)).isNull();
+    assertThat(ByteRange.parse("bytes=99999999999999999999-", 1000)).isNull();
+  }
+}
@@ -0,0 +1,141 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class ExportCacheTest {
+
+  private static final String KEY_A =
+      ExportCache.createKey("diku", "provider", "JR1", "4", "2019-01", "2019-12", "csv");
+  private static final String KEY_B =
+      ExportCache.createKey("diku", "provider", "JR1", "4", "2019-01", "2019-12", "xlsx");
+  private static final String KEY_C =
+      ExportCache.createKey("diku", "provider", "JR1", "4", "2020-01", "2020-12", "csv");
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+  private Vertx vertx;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testChangeId() throws Exception {
+    ExportCache cache = new ExportCache(1024, 1024, null, 0, 0);
+    cache.put(vertx, KEY_A, 1, bytes("a"));
+
+    assertThat(get(cache.get(vertx, KEY_A, 1))).isEqualTo(bytes("a"));
+    assertThat(get(cache.get(vertx, KEY_A, 2))).isNull();
+    assertThat(get(cache.get(vertx, KEY_B, 1))).isNull();
+
+    cache.put(vertx, KEY_A, 2, bytes("b"));
+    assertThat(get(cache.get(vertx, KEY_A, 1))).isNull();
+    assertThat(get(cache.get(vertx, KEY_A, 2))).isEqualTo(bytes("b"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    ExportCache cache = new ExportCache(10, 10, null, 0, 0);
+    cache.put(vertx, KEY_A, 1, bytes("aaaa"));
+    cache.put(vertx, KEY_B, 1, bytes("bbbb"));
+    assertThat(get(cache.get(vertx, KEY_A, 1))).isEqualTo(bytes("aaaa"));
+
+    cache.put(vertx, KEY_C, 1, bytes("cccc"));
+    assertThat(get(cache.get(vertx, KEY_A, 1))).isEqualTo(bytes("aaaa"));
+    assertThat(get(cache.get(vertx, KEY_B, 1))).isNull();
+    assertThat(get(cache.get(vertx, KEY_C, 1))).isEqualTo(bytes("cccc"));
+  }
+
+  @Test
+  public void testTenantLimit() throws Exception {
+    String keyOther =
+        ExportCache.createKey("other", "provider", "JR1", "4", "2019-01", "2019-12", "csv");
+    ExportCache cache = new ExportCache(16, 8, null, 0, 0);
+    cache.put(vertx, keyOther, 1, bytes("oooo"));
+    cache.put(vertx, KEY_A, 1, bytes("aaaa"));
+    cache.put(vertx, KEY_B, 1, bytes("bbbb"));
+
+    // the tenant exceeds its limit, its own least recently used entry is evicted
+    cache.put(vertx, KEY_C, 1, bytes("cccc"));
+    assertThat(get(cache.get(vertx, keyOther, 1))).isEqualTo(bytes("oooo"));
+    assertThat(get(cache.get(vertx, KEY_A, 1))).isNull();
+    assertThat(get(cache.get(vertx, KEY_B, 1))).isEqualTo(bytes("bbbb"));
+    assertThat(get(cache.get(vertx, KEY_C, 1))).isEqualTo(bytes("cccc"));
+  }
+
+  @Test
+  public void testClearDirectory() throws Exception {
+    File directory = tmpFolder.newFolder();
+    File cached = new File(directory, "ab".repeat(32));
+    File other = new File(directory, "other.txt");
+    assertThat(cached.createNewFile()).isTrue();
+    assertThat(other.createNewFile()).isTrue();
+
+    ExportCache cache = new ExportCache(5, 5, directory.getPath(), 1024, 1024);
+    get(cache.clearDirectory(vertx));
+    assertThat(cached).doesNotExist();
+    assertThat(other).exists();
+
+    // a missing directory is fine
+    get(
+        new ExportCache(5, 5, new File(directory, "missing").getPath(), 1024, 1024)
+            .clearDirectory(vertx));
+  }
+
+  @Test
+  public void testTooLargeOrDisabled() throws Exception {
+    ExportCache cache = new ExportCache(2, 2, null, 0, 0);
+    cache.put(vertx, KEY_A, 1, bytes("aaaa"));
+    assertThat(get(cache.get(vertx, KEY_A, 1))).isNull();
+
+    ExportCache disabled = new ExportCache(0, 0, null, 0, 0);
+    disabled.put(vertx, KEY_A, 1, bytes(""));
+    assertThat(get(disabled.get(vertx, KEY_A, 1))).isNull();
+  }
+
+  @Test
+  public void testDiskTier() throws Exception {
+    String directory = tmpFolder.newFolder().getPath();
+    ExportCache cache = new ExportCache(5, 5, directory, 1024, 1024);
+    cache.put(vertx, KEY_A, 1, bytes("aaaa"));
+    cache.put(vertx, KEY_B, 1, bytes("bbbb"));
+
+    // evicted entries are written to disk asynchronously
+    byte[] content = get(cache.get(vertx, KEY_A, 1));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (content == null && System.currentTimeMillis() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(50);
+      content = get(cache.get(vertx, KEY_A, 1));
+    }
+    assertThat(content).isEqualTo(bytes("aaaa"));
+    assertThat(get(cache.get(vertx, KEY_A, 2))).isNull();
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static <T> T get(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+}
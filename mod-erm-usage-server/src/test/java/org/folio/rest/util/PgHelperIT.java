@@ -2,25 +2,39 @@ package org.folio.rest.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORTS;
+import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORT_DATA;
+import static org.folio.rest.util.Constants.TABLE_NAME_COUNTER_REPORT_METRICS;
 
+import com.google.common.io.Resources;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Spliterator;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.Stream.Builder;
 import java.util.stream.StreamSupport;
 import org.folio.okapi.common.XOkapiHeaders;
 import org.folio.rest.jaxrs.model.CounterReport;
+import org.folio.rest.jaxrs.model.Report;
 import org.folio.rest.persist.Criteria.Criteria;
 import org.folio.rest.persist.Criteria.Criterion;
 import org.folio.rest.persist.PostgresClient;
@@ -29,6 +43,7 @@ import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.olf.erm.usage.counter50.Counter5Utils;
 
 @RunWith(VertxUnitRunner.class)
 public class PgHelperIT {
@@ -160,10 +175,10 @@ public class PgHelperIT {
   }*/
 
   @Test
-  public void testGetExistingReports(TestContext context) {
+  public void testGetExistingReportMonths(TestContext context) {
     Async async = context.async();
 
-    PgHelper.getExistingReports(
+    PgHelper.getExistingReportMonths(
             vertx.getOrCreateContext(),
             okapiHeaders,
             providerId,
@@ -182,10 +197,10 @@ public class PgHelperIT {
   }
 
   @Test
-  public void testGetExistingReports2(TestContext context) {
+  public void testGetExistingReportMonths2(TestContext context) {
     Async async = context.async();
 
-    PgHelper.getExistingReports(
+    PgHelper.getExistingReportMonths(
             vertx.getOrCreateContext(),
             okapiHeaders,
             providerId2,
@@ -209,7 +224,7 @@ public class PgHelperIT {
     reports2.forEach(li -> li.withFailedAttempts(5));
     CQLWrapper cql = createGetCounterReportCQL(providerId2, "4", "JR1");
 
-    PgHelper.saveCounterReportsToDb(vertx.getOrCreateContext(), okapiHeaders, reports2, false)
+    PgHelper.saveCounterReportsToDb(vertx.getOrCreateContext(), okapiHeaders, reports2, null, false)
         .onComplete(
             ar -> {
               if (ar.succeeded()) {
@@ -243,11 +258,11 @@ public class PgHelperIT {
 
     Async async2 = context.async();
     reports2.forEach(li -> li.withFailedAttempts(5));
-    PgHelper.saveCounterReportsToDb(vertx.getOrCreateContext(), okapiHeaders, reports2, true)
+    PgHelper.saveCounterReportsToDb(vertx.getOrCreateContext(), okapiHeaders, reports2, null, true)
         .onComplete(
             ar -> {
               if (ar.succeeded()) {
-                assertThat(ar.result()).hasSize(2);
+                assertThat(ar.result().getIds()).hasSize(2);
                 PostgresClient.getInstance(vertx, tenant)
                     .get(
                         TABLE_NAME_COUNTER_REPORTS,
@@ -263,7 +278,7 @@ public class PgHelperIT {
                                           result.result().getResults().stream()
                                               .map(CounterReport::getId))
                                       .containsExactlyInAnyOrder(
-                                          ar.result().toArray(new String[0]));
+                                          ar.result().getIds().toArray(new String[0]));
                                   assertThat(result.result().getResults())
                                       .allSatisfy(
                                           cr -> assertThat(cr.getFailedAttempts()).isEqualTo(5));
@@ -284,11 +299,11 @@ public class PgHelperIT {
     Async async = context.async();
     CQLWrapper cql = createGetCounterReportCQL(providerId2, "4", "PR1");
 
-    PgHelper.saveCounterReportsToDb(vertx.getOrCreateContext(), okapiHeaders, reports3, false)
+    PgHelper.saveCounterReportsToDb(vertx.getOrCreateContext(), okapiHeaders, reports3, null, false)
         .onComplete(
             ar -> {
               if (ar.succeeded()) {
-                assertThat(ar.result()).hasSize(2);
+                assertThat(ar.result().getIds()).hasSize(2);
                 PostgresClient.getInstance(vertx, tenant)
                     .get(
                         TABLE_NAME_COUNTER_REPORTS,
@@ -304,7 +319,7 @@ public class PgHelperIT {
                                           result.result().getResults().stream()
                                               .map(CounterReport::getId))
                                       .containsExactlyInAnyOrder(
-                                          ar.result().toArray(new String[0]));
+                                          ar.result().getIds().toArray(new String[0]));
                                 });
                             async.complete();
                           } else {
@@ -317,6 +332,234 @@ public class PgHelperIT {
             });
   }
 
+  @Test
+  public void testSaveReportsStoresMetrics(TestContext context) throws IOException {
+    String metricsQuery =
+        "SELECT COUNT(*), SUM(count) FROM "
+            + TABLE_NAME_COUNTER_REPORT_METRICS
+            + " WHERE provider_id = $1 AND year_month = $2";
+    CounterReport report = createTRReport();
+    Tuple params = Tuple.of(report.getProviderId(), report.getYearMonth());
+
+    PgHelper.saveCounterReportsToDb(
+            vertx.getOrCreateContext(), okapiHeaders, List.of(report), null, false)
+        .compose(ids -> select(metricsQuery, params))
+        .map(
+            rows -> {
+              Row row = rows.iterator().next();
+              assertThat(row.getLong(0)).isEqualTo(21);
+              assertThat(row.getLong(1)).isEqualTo(44);
+              // overwriting the report with a failed report removes the metrics
+              return report.withReport(null).withFailedAttempts(1);
+            })
+        .compose(
+            failedReport ->
+                PgHelper.saveCounterReportsToDb(
+                    vertx.getOrCreateContext(), okapiHeaders, List.of(failedReport), null, true))
+        .compose(ids -> select(metricsQuery, params))
+        .onComplete(
+            context.asyncAssertSuccess(
+                rows -> assertThat(rows.iterator().next().getLong(0)).isZero()));
+  }
+
+  @Test
+  public void testSaveUnchangedReports(TestContext context) throws IOException {
+    String metadataQuery =
+        "SELECT jsonb->>'downloadTime', jsonb->>'editReason', jsonb->>'failedAttempts',"
+            + " d.report_hash FROM "
+            + TABLE_NAME_COUNTER_REPORTS
+            + " r JOIN "
+            + TABLE_NAME_COUNTER_REPORT_DATA
+            + " d ON d.id = r.id WHERE idx_provider_id = $1::uuid";
+    CounterReport report = createTRReport().withFailedAttempts(1);
+    Tuple params = Tuple.of(report.getProviderId());
+    List<Row> saved = new ArrayList<>();
+
+    PgHelper.saveCounterReportsToDb(
+            vertx.getOrCreateContext(), okapiHeaders, List.of(report), null, false)
+        .compose(
+            result -> {
+              assertThat(result.getUnchangedCount()).isZero();
+              return select(metadataQuery, params);
+            })
+        .compose(
+            rows -> {
+              saved.add(rows.iterator().next());
+              // saving the same report again only updates the other fields
+              return PgHelper.saveCounterReportsToDb(
+                  vertx.getOrCreateContext(),
+                  okapiHeaders,
+                  List.of(
+                      report
+                          .withId(null)
+                          .withDownloadTime(new Date(0))
+                          .withEditReason("edited")
+                          .withFailedAttempts(null)),
+                  null,
+                  true);
+            })
+        .compose(
+            result -> {
+              assertThat(result.getUnchangedCount()).isEqualTo(1);
+              return select(metadataQuery, params);
+            })
+        .compose(
+            rows -> {
+              Row row = rows.iterator().next();
+              assertThat(row.getString(0)).isNotEqualTo(saved.get(0).getString(0));
+              assertThat(row.getString(1)).isEqualTo("edited");
+              assertThat(row.getString(2)).isNull();
+              assertThat(row.getString(3)).isEqualTo(saved.get(0).getString(3));
+              // a changed report is written
+              report.getReport().withAdditionalProperty("foo", "bar");
+              return PgHelper.saveCounterReportsToDb(
+                  vertx.getOrCreateContext(),
+                  okapiHeaders,
+                  List.of(report.withId(null)),
+                  null,
+                  true);
+            })
+        .compose(
+            result -> {
+              assertThat(result.getUnchangedCount()).isZero();
+              return select(metadataQuery, params);
+            })
+        .onComplete(
+            context.asyncAssertSuccess(
+                rows ->
+                    assertThat(rows.iterator().next().getString(3))
+                        .isNotEqualTo(saved.get(0).getString(3))));
+  }
+
+  @Test
+  public void testSaveUnchangedReportsKeepsChangeId(TestContext context) throws IOException {
+    CounterReport report = createTRReport();
+    List<Long> changeIds = new ArrayList<>();
+
+    PgHelper.saveCounterReportsToDb(
+            vertx.getOrCreateContext(), okapiHeaders, List.of(report), null, false)
+        .compose(saved -> getChangeId(report))
+        .compose(
+            changeId -> {
+              changeIds.add(changeId);
+              return PgHelper.saveCounterReportsToDb(
+                  vertx.getOrCreateContext(),
+                  okapiHeaders,
+                  List.of(report.withId(null).withDownloadTime(new Date(0))),
+                  null,
+                  true);
+            })
+        .compose(saved -> getChangeId(report))
+        .compose(
+            changeId -> {
+              // only other fields of the counter report changed
+              assertThat(changeId).isEqualTo(changeIds.get(0));
+              report.getReport().withAdditionalProperty("foo", "bar");
+              return PgHelper.saveCounterReportsToDb(
+                  vertx.getOrCreateContext(),
+                  okapiHeaders,
+                  List.of(report.withId(null)),
+                  null,
+                  true);
+            })
+        .compose(saved -> getChangeId(report))
+        .onComplete(
+            context.asyncAssertSuccess(
+                changeId -> assertThat(changeId).isGreaterThan(changeIds.get(0))));
+  }
+
+  @Test
+  public void testSaveReportsStoresFragments(TestContext context) throws Exception {
+    CounterReport report = createTRReport();
+    YearMonth month = YearMonth.parse(report.getYearMonth());
+    String fragment =
+        ReportFragments.create(Counter5Utils.fromJSON(Json.encode(report.getReport())), "5");
+    assertThat(fragment).isNotNull();
+
+    PgHelper.saveCounterReportsToDb(
+            vertx.getOrCreateContext(), okapiHeaders, List.of(report), List.of(fragment), false)
+        .compose(
+            saved ->
+                PgHelper.getReportFragments(
+                    vertx.getOrCreateContext(),
+                    okapiHeaders,
+                    report.getProviderId(),
+                    report.getReportName(),
+                    report.getRelease(),
+                    month,
+                    month))
+        .compose(
+            fragments -> {
+              assertThat(fragments).hasSize(1);
+              assertThat(fragments.get(0)).isEqualTo(fragment);
+              // a fragment is only valid for the report it was created from
+              return select(
+                  "UPDATE "
+                      + TABLE_NAME_COUNTER_REPORTS
+                      + " r SET jsonb = r.jsonb || jsonb_build_object('report',"
+                      + " d.report || '{\"foo\": \"bar\"}') FROM "
+                      + TABLE_NAME_COUNTER_REPORT_DATA
+                      + " d WHERE d.id = r.id AND r.idx_provider_id = $1::uuid",
+                  Tuple.of(report.getProviderId()));
+            })
+        .compose(
+            rows ->
+                PgHelper.getReportFragments(
+                    vertx.getOrCreateContext(),
+                    okapiHeaders,
+                    report.getProviderId(),
+                    report.getReportName(),
+                    report.getRelease(),
+                    month,
+                    month))
+        .onComplete(context.asyncAssertSuccess(fragments -> assertThat(fragments).isNull()));
+  }
+
+  @Test
+  public void testGetCounterReportJson(TestContext context) throws IOException {
+    CounterReport report = createTRReport();
+
+    PgHelper.saveCounterReportsToDb(
+            vertx.getOrCreateContext(), okapiHeaders, List.of(report), null, false)
+        .compose(
+            saved ->
+                PgHelper.getCounterReportJson(
+                    vertx.getOrCreateContext(), okapiHeaders, saved.getIds().get(0)))
+        .compose(
+            json -> {
+              assertThat(json.getRelease()).isEqualTo("5");
+              assertThat(Json.decodeValue(json.getReport(), Report.class))
+                  .usingRecursiveComparison()
+                  .isEqualTo(report.getReport());
+              return PgHelper.getCounterReportJson(
+                  vertx.getOrCreateContext(), okapiHeaders, UUID.randomUUID().toString());
+            })
+        .onComplete(context.asyncAssertSuccess(json -> assertThat(json).isNull()));
+  }
+
+  /** Returns a TR report of a new usage data provider. */
+  private static CounterReport createTRReport() throws IOException {
+    return Json.decodeValue(
+            Resources.toString(Resources.getResource("TR/TR_1.json"), StandardCharsets.UTF_8),
+            CounterReport.class)
+        .withProviderId(UUID.randomUUID().toString());
+  }
+
+  private Future<Long> getChangeId(CounterReport report) {
+    return PgHelper.getReportsChangeId(
+        vertx.getOrCreateContext(),
+        okapiHeaders,
+        report.getProviderId(),
+        report.getReportName(),
+        report.getRelease());
+  }
+
+  private Future<RowSet<Row>> select(String sql, Tuple params) {
+    Promise<RowSet<Row>> promise = Promise.promise();
+    PostgresClient.getInstance(vertx, tenant).select(sql, params, promise);
+    return promise.future();
+  }
+
   private CQLWrapper createGetCounterReportCQL(
       String providerId, String release, String reportName) {
     Criteria idCrit =
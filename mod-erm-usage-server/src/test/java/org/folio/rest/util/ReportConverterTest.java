@@ -0,0 +1,41 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.io.Resources;
+import com.google.gson.Gson;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.xml.bind.JAXB;
+import org.junit.Test;
+import org.niso.schemas.counter.Report;
+import org.olf.erm.usage.counter41.Counter4Utils;
+import org.olf.erm.usage.counter50.Counter5Utils;
+import org.olf.erm.usage.counter50.Counter5Utils.Counter5UtilsException;
+
+public class ReportConverterTest {
+
+  @Test
+  public void testFromCOP4Report() {
+    Report report =
+        JAXB.unmarshal(Resources.getResource("fileupload/reportJSTOR.xml"), Report.class);
+
+    JsonObject expected = new JsonObject(Counter4Utils.toJSON(report));
+    JsonObject actual = new JsonObject(Json.encode(ReportConverter.fromCOP4Report(report)));
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  @Test
+  public void testFromCOP5Report() throws IOException, Counter5UtilsException {
+    Object report =
+        Counter5Utils.fromJSON(
+            Resources.toString(
+                Resources.getResource("fileupload/hwire_trj1.json"), StandardCharsets.UTF_8));
+
+    JsonObject expected = new JsonObject(new Gson().toJson(report));
+    JsonObject actual = new JsonObject(Json.encode(ReportConverter.fromCOP5Report(report)));
+    assertThat(actual).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,91 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.Test;
+
+public class ReportFragmentsTest {
+
+  private static final String HEADER =
+      "Journal Report 1 (R4),Number of Successful Full-Text Article Requests by Month and Journal\n"
+          + "customer1234,\n"
+          + ",\n"
+          + "Period covered by Report\n";
+  private static final String COLUMNS =
+      "Journal,Publisher,Platform,Journal DOI,Proprietary Identifier,Print ISSN,Online ISSN,"
+          + "Reporting Period Total,Reporting Period HTML,Reporting Period PDF,";
+
+  private static final String DEC_2018 =
+      HEADER
+          + "2018-12-01 to 2018-12-31\n"
+          + COLUMNS
+          + "Dec-2018\n"
+          + "Total for all journals,,Ithaka,,,,,20,12,8,20\n"
+          + "19th-Century Music,University of California Press,Ithaka,,,0148-2076,1533-8606,"
+          + "9,5,4,9\n"
+          + "AA Files,Architectural Association School of Architecture,Ithaka,,,0261-6823,,"
+          + "7,5,2,7\n";
+  private static final String JAN_2019 =
+      HEADER
+          + "2019-01-01 to 2019-01-31\n"
+          + COLUMNS
+          + "Jan-2019\n"
+          + "Total for all journals,,Ithaka,,,,,5,2,3,5\n"
+          + "19th-Century Music,University of California Press,Ithaka,,,0148-2076,1533-8606,"
+          + "2,1,1,2\n"
+          + "\"Journal, The\",Some Press,Ithaka,,,1234-5678,,3,1,2,3\n";
+
+  @Test
+  public void testMerge() {
+    assertThat(ReportFragments.merge(List.of(DEC_2018, JAN_2019)))
+        .isEqualTo(
+            HEADER
+                + "2018-12-01 to 2019-01-31\n"
+                + COLUMNS
+                + "Dec-2018,Jan-2019\n"
+                + "Total for all journals,,Ithaka,,,,,25,14,11,20,5\n"
+                + "19th-Century Music,University of California Press,Ithaka,,,0148-2076,"
+                + "1533-8606,11,6,5,9,2\n"
+                + "AA Files,Architectural Association School of Architecture,Ithaka,,,0261-6823,,"
+                + "7,5,2,7,\n"
+                + "\"Journal, The\",Some Press,Ithaka,,,1234-5678,,3,1,2,,3\n");
+  }
+
+  @Test
+  public void testMergeDateRun() {
+    // the run date of the fragment is the date the report was saved
+    String header = "Period covered by Report\n2018-12-01 to 2018-12-31\nDate run\n%s\n";
+    String rows = COLUMNS + "Dec-2018\nTotal for all journals,,Ithaka,,,,,20,12,8,20\n";
+    assertThat(ReportFragments.merge(List.of(String.format(header, "2019-01-05") + rows)))
+        .isEqualTo(String.format(header, LocalDate.now()) + rows);
+  }
+
+  @Test
+  public void testMergeSingleMonth() {
+    assertThat(ReportFragments.merge(List.of(DEC_2018))).isEqualTo(DEC_2018);
+  }
+
+  @Test
+  public void testMerger() {
+    ReportFragments.Merger merger = new ReportFragments.Merger();
+    assertThat(merger.toCSV()).isNull();
+    assertThat(merger.add(DEC_2018)).isTrue();
+    assertThat(merger.add(JAN_2019)).isTrue();
+    assertThat(merger.toCSV()).isEqualTo(ReportFragments.merge(List.of(DEC_2018, JAN_2019)));
+    // a fragment that can't be merged invalidates the merged export
+    assertThat(merger.add("no,columns\n")).isFalse();
+    assertThat(merger.add(JAN_2019)).isFalse();
+    assertThat(merger.toCSV()).isNull();
+  }
+
+  @Test
+  public void testMergeInvalid() {
+    assertThat(ReportFragments.merge(List.of())).isNull();
+    assertThat(ReportFragments.merge(List.of(DEC_2018, "no,columns\n"))).isNull();
+    // fragments with different columns can't be merged
+    assertThat(ReportFragments.merge(List.of(DEC_2018, JAN_2019.replace("Journal DOI", "DOI"))))
+        .isNull();
+  }
+}
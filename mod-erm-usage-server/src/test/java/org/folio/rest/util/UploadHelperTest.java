@@ -0,0 +1,114 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.io.Resources;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXB;
+import org.folio.rest.util.UploadHelper.FileUploadException;
+import org.folio.rest.util.UploadHelper.ReportFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.niso.schemas.counter.Report;
+import org.olf.erm.usage.counter41.Counter4Utils;
+import org.olf.erm.usage.counter50.Counter5Utils;
+import org.olf.erm.usage.counter50.Counter5Utils.Counter5UtilsException;
+
+@RunWith(VertxUnitRunner.class)
+public class UploadHelperTest {
+
+  private Vertx vertx;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  private static String readResource(String name) throws IOException {
+    return Resources.toString(Resources.getResource(name), StandardCharsets.UTF_8);
+  }
+
+  private List<ParsedCounterReport> getCounterReports(String resource) throws Exception {
+    return get(
+        UploadHelper.getCounterReports(vertx.getOrCreateContext(), () -> readResource(resource)));
+  }
+
+  private static <T> T get(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testDetectFormat() throws IOException, Counter5UtilsException {
+    String cop4Xml = readResource("fileupload/reportJSTORMultiMonth.xml");
+    String cop5Json = readResource("fileupload/reportCOP5TRMultiMonth.json");
+    String cop4Csv =
+        Counter4Utils.toCSV(
+            JAXB.unmarshal(Resources.getResource("fileupload/reportJSTOR.xml"), Report.class));
+    String cop5Csv = Counter5Utils.toCSV(Counter5Utils.fromJSON(cop5Json));
+
+    assertThat(UploadHelper.detectFormat(cop4Xml)).isEqualTo(ReportFormat.COUNTER4_XML);
+    assertThat(UploadHelper.detectFormat("\uFEFF\n  " + cop4Xml))
+        .isEqualTo(ReportFormat.COUNTER4_XML);
+    assertThat(UploadHelper.detectFormat(cop5Json)).isEqualTo(ReportFormat.COUNTER5_JSON);
+    assertThat(UploadHelper.detectFormat(cop4Csv)).isEqualTo(ReportFormat.COUNTER4_CSV);
+    assertThat(UploadHelper.detectFormat(cop5Csv)).isEqualTo(ReportFormat.COUNTER5_CSV);
+    assertThat(UploadHelper.detectFormat(" \n ")).isEqualTo(ReportFormat.UNKNOWN);
+  }
+
+  @Test
+  public void testGetCounterReports() throws Exception {
+    List<ParsedCounterReport> cop4Reports =
+        getCounterReports("fileupload/reportJSTORMultiMonth.xml");
+    assertThat(cop4Reports)
+        .extracting(p -> p.getCounterReport().getYearMonth())
+        .containsExactlyInAnyOrder("2018-03", "2018-04");
+    assertThat(cop4Reports)
+        .allSatisfy(p -> assertThat(p.getCounterReport().getRelease()).isEqualTo("4"));
+    assertThatFragmentsMatchMonths(cop4Reports);
+
+    List<ParsedCounterReport> cop5Reports =
+        getCounterReports("fileupload/reportCOP5TRMultiMonth.json");
+    assertThat(cop5Reports)
+        .extracting(p -> p.getCounterReport().getYearMonth())
+        .containsExactlyInAnyOrder("2019-09", "2019-10", "2019-11");
+    assertThat(cop5Reports)
+        .allSatisfy(p -> assertThat(p.getCounterReport().getReportName()).isEqualTo("TR"));
+    assertThatFragmentsMatchMonths(cop5Reports);
+  }
+
+  // the fragment of a month ends its column row with the month, e.g. Mar-2018
+  private static void assertThatFragmentsMatchMonths(List<ParsedCounterReport> reports) {
+    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMM-yyyy", Locale.ENGLISH);
+    assertThat(reports)
+        .allSatisfy(
+            p ->
+                assertThat(p.getFragment())
+                    .contains(
+                        YearMonth.parse(p.getCounterReport().getYearMonth()).format(formatter)));
+  }
+
+  @Test
+  public void testGetCounterReportsWrongFormat() {
+    assertThatThrownBy(() -> getCounterReports("fileupload/noreport.txt"))
+        .hasRootCauseInstanceOf(FileUploadException.class)
+        .hasMessageContaining("Wrong format");
+  }
+}
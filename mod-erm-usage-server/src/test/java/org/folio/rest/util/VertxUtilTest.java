@@ -0,0 +1,64 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.folio.rest.util.VertxUtil.WorkerPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class VertxUtilTest {
+
+  private Vertx vertx;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testExecuteBlockingUnordered(TestContext context) {
+    Context vertxContext = vertx.getOrCreateContext();
+    CountDownLatch latch = new CountDownLatch(2);
+
+    // both tasks only finish if they are executed concurrently
+    Future<Boolean> first =
+        VertxUtil.executeBlocking(vertxContext, WorkerPool.EXPORT, () -> countDownAndAwait(latch));
+    Future<Boolean> second =
+        VertxUtil.executeBlocking(vertxContext, WorkerPool.EXPORT, () -> countDownAndAwait(latch));
+
+    CompositeFuture.all(first, second)
+        .onComplete(
+            context.asyncAssertSuccess(
+                cf -> {
+                  assertThat(first.result()).isTrue();
+                  assertThat(second.result()).isTrue();
+                  assertThat(WorkerPool.EXPORT.getQueueDepth()).isZero();
+                }));
+  }
+
+  private static boolean countDownAndAwait(CountDownLatch latch) {
+    latch.countDown();
+    try {
+      return latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
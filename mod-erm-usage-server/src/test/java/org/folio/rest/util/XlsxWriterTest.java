@@ -0,0 +1,70 @@
+package org.folio.rest.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+public class XlsxWriterTest {
+
+  private static final String CSV =
+      "Title,Publisher,ISSN,Reporting_Period_Total,Jan-2019\n"
+          + "\"Title, with comma\",Publisher,1234-5678,15,0012\n"
+          + "Title 2,,,7,-3\n";
+
+  @Test
+  public void testFromCSV() throws IOException {
+    byte[] xlsx = XlsxWriter.fromCSV(CSV);
+    try (Workbook wb = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+      Sheet sheet = wb.getSheetAt(0);
+      assertThat(sheet.getLastRowNum()).isEqualTo(2);
+      assertThat(sheet.getRow(1).getCell(0).getStringCellValue()).isEqualTo("Title, with comma");
+      assertThat(sheet.getRow(1).getCell(3).getCellType()).isEqualTo(CellType.NUMERIC);
+      assertThat(sheet.getRow(1).getCell(4).getCellType()).isEqualTo(CellType.STRING);
+      assertThat(sheet.getRow(1).getCell(2).getCellType()).isEqualTo(CellType.STRING);
+      assertThat(sheet.getRow(2).getCell(4).getNumericCellValue()).isEqualTo(-3);
+    }
+  }
+
+  @Test
+  public void testFromCSVIdentifiersAreText() throws IOException {
+    String csv =
+        "Book Report 1 (R4),Number of Successful Title Requests by Month and Title\n"
+            + "1234567,\n"
+            + "Title,Publisher,Platform,Book DOI,Proprietary Identifier,ISBN,ISSN,"
+            + "Reporting Period Total,Jan-2019\n"
+            + "Book,Publisher,Platform,,123456789,9783161484100,,12,12\n";
+    byte[] xlsx = XlsxWriter.fromCSV(csv);
+    try (Workbook wb = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+      Sheet sheet = wb.getSheetAt(0);
+      assertThat(sheet.getRow(1).getCell(0).getStringCellValue()).isEqualTo("1234567");
+      assertThat(sheet.getRow(3).getCell(4).getStringCellValue()).isEqualTo("123456789");
+      assertThat(sheet.getRow(3).getCell(5).getStringCellValue()).isEqualTo("9783161484100");
+      assertThat(sheet.getRow(3).getCell(7).getNumericCellValue()).isEqualTo(12);
+      assertThat(sheet.getRow(3).getCell(8).getNumericCellValue()).isEqualTo(12);
+    }
+  }
+
+  @Test
+  public void testFromCSVManyRows() throws IOException {
+    // more rows than the row window kept in memory
+    String csv =
+        IntStream.range(0, 1000)
+            .mapToObj(i -> "Title " + i + "," + i)
+            .collect(Collectors.joining("\n", "Title,Reporting_Period_Total\n", "\n"));
+    byte[] xlsx = XlsxWriter.fromCSV(csv);
+    try (Workbook wb = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+      Sheet sheet = wb.getSheetAt(0);
+      assertThat(sheet.getLastRowNum()).isEqualTo(1000);
+      assertThat(sheet.getRow(1000).getCell(0).getStringCellValue()).isEqualTo("Title 999");
+      assertThat(sheet.getRow(1000).getCell(1).getNumericCellValue()).isEqualTo(999);
+    }
+  }
+}
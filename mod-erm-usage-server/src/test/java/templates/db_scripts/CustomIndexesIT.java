@@ -18,7 +18,7 @@ public class CustomIndexesIT {
 
   private static final String[] TENANTS = {"aTenant", "bTenant"};
   private static final String[] INDEXES = {
-    "counter_reports_custom_getcsv_idx",
+    "counter_reports_identity_idx",
     "counter_reports_custom_errorcodes_idx",
     "usage_data_providers_custom_aggregatorid_idx"
   };
@@ -102,7 +102,7 @@ public class SQLTriggersIT {
       reportFailed =
           Json.decodeValue(reportJSON, CounterReport.class)
               .withId(UUID.randomUUID().toString())
-              .withYearMonth("2018-02")
+              .withYearMonth("2018-05")
               .withFailedAttempts(3)
               .withFailedReason("This is a failed report")
               .withReport(null);